@@ -20,6 +20,8 @@ public class Aggregate extends Operator {
     private String gFieldName = null;
     private String aFieldName = null;
     private int afield, gfield;
+    // the child fields the aggregator works on, as passed in
+    private final int aggAfield, aggGfield;
 
     /**
      * Constructor.
@@ -39,6 +41,8 @@ public class Aggregate extends Operator {
         this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
+        this.aggAfield = afield;
+        this.aggGfield = gfield;
         if (this.aop == Op.SC_AVG)
             if (this.gfield == Aggregator.NO_GROUPING)
                 this.afield = 0;
@@ -47,16 +51,7 @@ public class Aggregate extends Operator {
                 this.gfield = 0;
             }
         TupleDesc child_td = child.getTupleDesc();
-
-        if (child_td.getFieldType(afield) == Type.INT_TYPE) {
-            this.agg = new IntegerAggregator(gfield,
-                    gfield == Aggregator.NO_GROUPING ? null
-                            : child_td.getFieldType(gfield), afield, aop);
-        } else {
-            this.agg = new StringAggregator(gfield,
-                    gfield == Aggregator.NO_GROUPING ? null
-                            : child_td.getFieldType(gfield), afield, aop);
-        }
+        this.agg = newAggregator();
 
         if (gfield == Aggregator.NO_GROUPING) {
             int nFields = 1;
@@ -114,6 +109,15 @@ public class Aggregate extends Operator {
         }
     }
 
+    private Aggregator newAggregator() {
+        TupleDesc child_td = child.getTupleDesc();
+        Type gtype = aggGfield == Aggregator.NO_GROUPING ? null : child_td.getFieldType(aggGfield);
+        if (child_td.getFieldType(aggAfield) == Type.INT_TYPE) {
+            return new IntegerAggregator(aggGfield, gtype, aggAfield, aop);
+        }
+        return new StringAggregator(aggGfield, gtype, aggAfield, aop);
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      * field index in the <b>INPUT</b> tuples. If not, return
@@ -190,9 +194,16 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    /**
+     * Start over on the results, which are kept, so the child is not read
+     * again.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
-        close();
-        open();
+        if (it != null) {
+            it.rewind();
+        }
+        super.close();
+        super.open();
     }
 
     /**
@@ -210,11 +221,17 @@ public class Aggregate extends Operator {
         return td;
     }
 
+    /**
+     * Closing drops the results and deletes any spill files; opening again
+     * aggregates the child again.
+     */
     public void close() {
         super.close();
         child.close();
         if (it != null) {
             it.close();
+            it = null;
+            agg = newAggregator();
         }
     }
 
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The BlockNestedLoopJoin operator joins two inputs on an arbitrary
+ * predicate by buffering a block of outer tuples at a time and scanning the
+ * inner input once per block, instead of once per outer tuple as
+ * {@link Join} does.
+ * <p/>
+ * The block holds as many outer tuples as fit in blockPages pages.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of pages of outer tuples buffered per inner scan.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = 32;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int blockPages;
+    private final TupleDesc td;
+
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    private int blockTuples;
+    private Tuple inner;
+    private int blockIdx;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * @param blockPages the number of pages of outer tuples to buffer per
+     *                   scan of the inner relation
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockPages = Math.max(1, blockPages);
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit in the
+     * given number of pages
+     */
+    public static int blockTuples(TupleDesc td, int pages) {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, perPage * pages);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        blockTuples = blockTuples(child1.getTupleDesc(), blockPages);
+        loadBlock();
+    }
+
+    public void close() {
+        block.clear();
+        inner = null;
+        child1.close();
+        child2.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        loadBlock();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. For each inner tuple, every outer tuple in the current
+     * block is tested; when the inner input runs out the next block is
+     * loaded and the inner input is rewound.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null) {
+                while (blockIdx < block.size()) {
+                    Tuple outer = block.get(blockIdx++);
+                    if (p.filter(outer, inner)) {
+                        return Tuple.merge(outer, inner, td);
+                    }
+                }
+                inner = null;
+            }
+            if (block.isEmpty()) {
+                return null;
+            }
+            if (child2.hasNext()) {
+                inner = child2.next();
+                blockIdx = 0;
+            } else {
+                if (!loadBlock()) {
+                    return null;
+                }
+                child2.rewind();
+            }
+        }
+    }
+
+    /**
+     * Replace the current block with the next blockTuples outer tuples.
+     *
+     * @return false if the outer input is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        inner = null;
+        while (block.size() < blockTuples && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        return !block.isEmpty();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -2,8 +2,11 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -15,6 +18,24 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p/>
+ * Resident pages live in a {@link PageTable}, so cache hits do not take any
+ * lock beyond the page lock from the LockManager.  Misses read from disk
+ * without holding a shared monitor; only installing the loaded page (and
+ * evicting to make room for it) is serialized, on evictionLock.  Which page
+ * is evicted is up to a pluggable {@link EvictionPolicy}.
+ * <p/>
+ * Read-only transactions may instead read a snapshot (see
+ * {@link #beginSnapshot}), served from a {@link VersionStore} without locks.
+ * Short update transactions may run optimistically (see
+ * {@link #beginOptimistic}): they read a snapshot too, buffer their writes
+ * privately and lock only while they validate at commit.
+ * <p/>
+ * Commits do not write pages (NO FORCE): a committed page stays in the pool
+ * and in the dirty page table until a background writer, an eviction or a
+ * flush writes it out.  The table remembers, for each such page, the LSN of
+ * the oldest change not on disk yet, which bounds how much of the log
+ * recovery needs (see {@link LogFile#logCheckpoint}).
  *
  * @Threadsafe, all fields are final
  */
@@ -32,22 +53,70 @@ public class BufferPool {
      * constructor instead.
      */
     public static final int DEFAULT_PAGES = 50;
-    private Hashtable<PageId, Page> bpool;
-    private int numPages;
-    private Hashtable<PageId, Long> pageAccessTime;
-    private long timeAccessed;
-    private LockManager lm;
+    private final PageTable bpool;
+    private final int numPages;
+    private final EvictionPolicy policy;
+    private final FramePool frames;
+    private final Object evictionLock = new Object();
+    private final LockManager lm;
+    private final VersionStore versions = new VersionStore();
+    private final ConcurrentHashMap<TransactionId, Workspace> workspaces =
+            new ConcurrentHashMap<TransactionId, Workspace>();
+    // committed pages not written yet, and their oldest unwritten LSN
+    private final ConcurrentHashMap<PageId, DirtyEntry> dirtyPages =
+            new ConcurrentHashMap<PageId, DirtyEntry>();
+    // transactions whose updates are in the log already
+    private final Set<TransactionId> logged =
+            Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+    private final Object writerLock = new Object();
+    private PageWriter writer;
+    /**
+     * How often, in ms, the background writer writes committed pages out.
+     */
+    static final long WRITE_DELAY_MS = 1000;
+    private final PageTable.Loader diskLoader = new PageTable.Loader() {
+        public Page load(PageId pid) throws DbException {
+            return loadFromDisk(pid);
+        }
+    };
    
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        //bp_pages = new Page[numPages]; -- didn't use numPages...
-        bpool = new Hashtable<PageId, Page>();
-        pageAccessTime = new Hashtable<PageId, Long>();
+        this(numPages, new ClockEvictionPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   chooses which page to evict when the pool is full
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
+        this(numPages, policy, 0);
+    }
+
+    /**
+     * Creates a frame-based BufferPool: up to numPages decoded pages, backed
+     * by numFrames raw page frames allocated off the Java heap.  Clean pages
+     * evicted from the decoded set go to a frame, and are decoded again only
+     * when they are next requested.  This allows pools of several GB without
+     * millions of Tuple and Field objects for the garbage collector to trace.
+     *
+     * @param numPages  maximum number of decoded pages kept on the heap.
+     * @param policy    chooses which decoded page to evict when full
+     * @param numFrames number of off-heap page frames, or 0 for none
+     * @see FramePool
+     */
+    public BufferPool(int numPages, EvictionPolicy policy, int numFrames) {
+        bpool = new PageTable(numPages);
+        this.policy = policy;
         this.numPages = numPages;
+        this.frames = numFrames > 0 ? new FramePool(numFrames) : null;
         lm = new LockManager();
     }
 
@@ -77,30 +146,259 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-    	System.out.println("getting page " + pid + "and bpool size is " + bpool.size());
-        Page page = null;
+        Workspace ws = workspaces.get(tid);
+        if (ws != null) {
+            return getPrivatePage(ws, pid, perm);
+        }
+        Long snapshot = versions.snapshotOf(tid);
+        if (snapshot != null) {
+            if (perm == Permissions.READ_WRITE) {
+                throw new DbException("transaction reading a snapshot cannot write");
+            }
+            return getSnapshotPage(pid, snapshot);
+        }
         lm.requestLock(pid, tid, perm);
-        synchronized(this) { //make bufferpool update atomic 
-        	if(bpool.containsKey(pid)){
-        		System.out.println("page is alreagy in BP");
-        		page = bpool.get(pid);
-        	}
-        	else {
-        		System.out.println("need to read from disk");
-        		int tableid = pid.getTableId();
-        		page = Database.getCatalog().getDatabaseFile(tableid).readPage(pid);
-        		if (bpool.size() >= numPages) {
-        			System.out.println("EVICTING A PAGE");
-        			this.evictPage();
-        		}
-        		bpool.put(pid, page);
-        		pageAccessTime.put(pid, System.currentTimeMillis());
-        	}
-        }
-        return page;
+        Page page = bpool.get(pid);
+        if (page != null) {
+            policy.pageAccessed(pid);
+            return page;
+        }
+        return bpool.getOrLoad(pid, diskLoader);
     }
-    
 
+    /**
+     * Start a snapshot for tid: until tid completes, getPage returns pages
+     * as of the last commit, takes no locks and refuses READ_WRITE.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.beginSnapshot(tid);
+    }
+
+    /**
+     * The private copies and read set of an optimistic transaction.  A copy
+     * is made on the first READ_WRITE fetch of a page, but only counts as a
+     * write once the transaction has dirtied it.
+     */
+    private static class Workspace {
+        final long start;
+        final HashSet<PageId> reads = new HashSet<PageId>();
+        final LinkedHashMap<PageId, Page> copies = new LinkedHashMap<PageId, Page>();
+
+        Workspace(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * Start tid as an optimistic transaction.  Until it commits, getPage
+     * returns pages from the snapshot as of now and takes no locks, and
+     * READ_WRITE returns a private copy of the page that nobody else sees.
+     * Its commit must first pass {@link #validateOptimistic}.
+     */
+    public void beginOptimistic(TransactionId tid) {
+        versions.beginSnapshot(tid);
+        workspaces.put(tid, new Workspace(versions.snapshotOf(tid)));
+    }
+
+    private Page getPrivatePage(Workspace ws, PageId pid, Permissions perm) throws DbException {
+        synchronized (ws) {
+            Page page = ws.copies.get(pid);
+            if (page != null) {
+                return page;
+            }
+            ws.reads.add(pid);
+            page = getSnapshotPage(pid, ws.start);
+            if (perm == Permissions.READ_WRITE) {
+                // snapshot versions are shared; write a copy
+                page = VersionStore.copyOf(page);
+                ws.copies.put(pid, page);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Validate optimistic transaction tid and make its writes visible.
+     * tid takes exclusive locks on the pages it wrote and shared locks on
+     * the pages it read, so locking transactions that use them finish
+     * first; if any of those pages was committed since tid's snapshot, tid
+     * is aborted.  Otherwise its private pages replace the pool's copies,
+     * and from here on tid commits like a locking transaction holding
+     * those locks.
+     *
+     * @throws TransactionAbortedException if validation fails; the caller
+     *                                     must abort tid
+     */
+    public void validateOptimistic(TransactionId tid) throws TransactionAbortedException {
+        Workspace ws = workspaces.get(tid);
+        if (ws == null) {
+            return;
+        }
+        ArrayList<Page> writes = new ArrayList<Page>();
+        ArrayList<PageId> reads = new ArrayList<PageId>();
+        synchronized (ws) {
+            for (Page page : ws.copies.values()) {
+                if (page.isDirty() != null) {
+                    writes.add(page);
+                }
+            }
+            for (PageId pid : ws.reads) {
+                Page copy = ws.copies.get(pid);
+                if (copy == null || copy.isDirty() == null) {
+                    reads.add(pid);
+                }
+            }
+        }
+        // lock waits happen outside the workspace monitor
+        for (Page page : writes) {
+            lm.requestLock(page.getId(), tid, Permissions.READ_WRITE);
+        }
+        for (PageId pid : reads) {
+            lm.requestLock(pid, tid, Permissions.READ_ONLY);
+        }
+        for (Page page : writes) {
+            if (versions.lastCommitOf(page.getId()) > ws.start) {
+                throw new TransactionAbortedException();
+            }
+        }
+        for (PageId pid : reads) {
+            if (versions.lastCommitOf(pid) > ws.start) {
+                throw new TransactionAbortedException();
+            }
+        }
+        synchronized (evictionLock) {
+            for (Page page : writes) {
+                if (frames != null) {
+                    frames.invalidate(page.getId());
+                }
+                bpool.put(page);
+                policy.pageLoaded(page.getId());
+            }
+        }
+        workspaces.remove(tid);
+        versions.endSnapshot(tid);
+    }
+
+    /**
+     * The version of pid that snapshot sees.  Pages committed since the
+     * snapshot come from the version store; anything else is the page's
+     * committed image, which is its before-image if it is resident and the
+     * disk copy otherwise (dirty pages are never written before commit).
+     * The result is a private copy, so writers may change the resident page
+     * meanwhile.
+     */
+    private Page getSnapshotPage(PageId pid, long snapshot) throws DbException {
+        Page page = versions.lookup(pid, snapshot);
+        if (page != null) {
+            return page;
+        }
+        Page resident = bpool.get(pid);
+        Page committed = resident != null ? resident.getBeforeImage()
+                : Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        // a commit may have published a newer version while we read
+        page = versions.lookup(pid, snapshot);
+        return page != null ? page : committed;
+    }
+
+    /**
+     * Read a page that missed in the pool and install it, evicting if the
+     * pool is full.  The disk read happens before evictionLock is taken, so
+     * a cold read never blocks hits or misses on other pages.
+     */
+    private Page loadFromDisk(PageId pid) throws DbException {
+        Page page = frames == null ? null : frames.load(pid);
+        if (page == null) {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        }
+        synchronized (evictionLock) {
+            return install(page);
+        }
+    }
+
+    /**
+     * Put a freshly read page in the pool unless a copy is already there.
+     * Caller must hold evictionLock.
+     */
+    private Page install(Page page) throws DbException {
+        PageId pid = page.getId();
+        if (bpool.containsKey(pid)) {
+            // someone installed a newer copy (e.g. insertTuple) meanwhile
+            return bpool.get(pid);
+        }
+        while (bpool.size() >= numPages) {
+            evictPage();
+        }
+        policy.pageLoaded(pid);
+        return bpool.putIfAbsent(page);
+    }
+
+    /**
+     * Offer a page that a scan read ahead of time.  It is installed only if
+     * it is not resident yet, and only if file has not been written since
+     * the page was read (see {@link HeapFile#writeVersion}); otherwise the
+     * page is read again, since a getPage may be sharing this load.  No page
+     * lock is taken, and a pool full of dirty pages just drops it.
+     */
+    void prefetch(final HeapFile file, final long version, final Page page) {
+        if (bpool.containsKey(page.getId())) {
+            return;
+        }
+        try {
+            bpool.getOrLoad(page.getId(), new PageTable.Loader() {
+                public Page load(PageId pid) throws DbException {
+                    synchronized (evictionLock) {
+                        if (file.unchangedSince(version)) {
+                            return install(page);
+                        }
+                    }
+                    // page may be stale, and a getPage may be waiting on
+                    // this load, so read it again
+                    return loadFromDisk(pid);
+                }
+            });
+        } catch (DbException e) {
+            // no clean page to evict; read-ahead is only a hint
+        }
+    }
+
+    /**
+     * @return true if pid is in the pool right now.  Takes no lock.
+     */
+    boolean isResident(PageId pid) {
+        return bpool.containsKey(pid);
+    }
+
+    /**
+     * @return the maximum number of decoded pages this pool holds
+     */
+    int capacity() {
+        return numPages;
+    }
+
+    /**
+     * Make a page that was modified outside the pool visible to future
+     * requests, replacing any cached copy.
+     */
+    private void installPage(Page page) {
+        synchronized (evictionLock) {
+            bpool.put(page);
+            policy.pageLoaded(page.getId());
+        }
+    }
+
+    /**
+     * Drop a page from the pool without writing it out.
+     */
+    private Page removePage(PageId pid) {
+        synchronized (evictionLock) {
+            Page p = bpool.remove(pid);
+            policy.pageRemoved(pid);
+            if (frames != null) {
+                frames.invalidate(pid);
+            }
+            return p;
+        }
+    }
 
     /**
      * Releases the lock on a page.
@@ -112,23 +410,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void releasePage(TransactionId tid, PageId pid) {
-    	System.out.println("RELEASING PAGE!!!!!!!" + pid);
-    	 Lock lock = lm.getLockTable().get(pid);
-    	 if (lock==null) {return;}
-         lock.deleteTransaction(tid);
-         if (lm.getLockTable().containsKey(pid)) {
-        	 lm.getLockTable().remove(pid);
-         }
-         int j = lm.getLockedPages().get(tid).indexOf(pid);
-         if (j>=0) {
-        	 lm.getLockedPages().get(tid).remove(j);
-         }
-         int k = lm.getWaitingForPages().get(tid).indexOf(pid);
-         if (k>=0) {
-        	 lm.getWaitingForPages().get(tid).remove(k);
-         }
-         
-         System.out.println("RELEASE: Transaction " + tid + " is releasing lock " + pid);
+        lm.releaseLock(pid, tid);
     }
    
 
@@ -141,6 +423,51 @@ public class BufferPool {
     	transactionComplete(tid, true);                                                         // cosc460
     }
 
+    /**
+     * Choose how lock waits that could deadlock are resolved.
+     */
+    public void setDeadlockPolicy(LockManager.DeadlockPolicy policy) {
+        lm.setDeadlockPolicy(policy);
+    }
+
+    /**
+     * Lock a whole table for tid, so that its pages can be fetched with perm
+     * without taking a lock per page.  May block.
+     *
+     * @param tid     the transaction locking the table
+     * @param tableId the table to lock
+     * @param perm    READ_ONLY for a shared lock, READ_WRITE for exclusive
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        if (versions.snapshotOf(tid) == null) {
+            lm.requestTableLock(tableId, tid, perm);
+        }
+    }
+
+    /**
+     * Lock a single tuple for tid.  Does nothing if tid's page or table
+     * locks already cover it.  May block.
+     */
+    public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        if (versions.snapshotOf(tid) == null) {
+            lm.requestTupleLock(rid, tid, perm);
+        }
+    }
+
+    /**
+     * Set how many page locks a transaction may hold in one table before
+     * they are escalated to a table lock.
+     */
+    public void setLockEscalationThreshold(int pages) {
+        lm.setEscalationThreshold(pages);
+    }
+
+    public int getLockEscalationThreshold() {
+        return lm.getEscalationThreshold();
+    }
+
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
@@ -157,49 +484,106 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-    	// if committing, then flush (write) all pages connected to this txn
-    	ArrayList<PageId> list = lm.getLockedPages().get(tid);
-    	if (list==null) {return;}
-    	System.out.println("COMMIT????? "+ commit);
+    	if (workspaces.remove(tid) != null) {
+    		// optimistic and never validated: drop the private pages
+    		versions.endSnapshot(tid);
+    		lm.releaseAllLocks(tid);
+    		return;
+    	}
+    	if (versions.endSnapshot(tid)) {
+    		return;
+    	}
+    	ArrayList<PageId> list = lm.getLockedPages(tid);
+    	if (list==null) {
+    		logged.remove(tid);
+    		return;
+    	}
     	if (commit) {
-    		System.out.println("flushed pages LIST SIZE = " + list.size());
+    		logPages(tid);
     		for (PageId pgId : list) {
-    			System.out.println("committing... setting before image for page " + bpool.get(pgId));
     			// use current page contents as the before-image
     	        // for the next transaction that modifies this page.
-    			if (bpool.keySet().contains(pgId)) {
-    				Page p = bpool.get(pgId);
+    			Page p = bpool.get(pgId);
+    			if (p != null) {
     				p.setBeforeImage();
+    				if (p.isDirty() != null && p.isDirty().equals(tid)) {
+    					// committed, but written later (see PageWriter)
+    					p.markDirty(false, tid);
+    				}
     			}
     		}
-    		System.out.println("in if commit");
-    		flushPages(tid);
-    		
+    		if (!dirtyPages.isEmpty()) {
+    			startWriter();
+    		}
     	}
     	else {
-    		//ArrayList<PageId> list = lm.getLockedPages().get(tid);
-    		System.out.println("size of list = " + list.size());
     		for (PageId pgID : list) {
-    			
-    			//System.out.println("bpool size = " + bpool.size());
-    			//System.out.println("pageid? =" + pgID);
-    			if (bpool.keySet().contains(pgID)) {
-    				bpool.get(pgID).markDirty(false, tid);
-    				bpool.remove(pgID);
-    				pageAccessTime.remove(pgID);
+    			Page p = bpool.get(pgID);
+    			if (p != null && dirtyPages.containsKey(pgID)) {
+    				// the disk copy is older than the last commit
+    				restore(p);
+    				continue;
+    			}
+    			p = removePage(pgID);
+    			if (p != null) {
+    				p.markDirty(false, tid);
     			}
-    			//releasePage(tid, pgID);
     		}
-
     	}
-		for (int i=0;i<list.size();i++) {
-			PageId id = list.get(i);
-			System.out.println("here??!!!?!?!?!?!");
-			releasePage(tid, id);
-		}
+    	logged.remove(tid);
+		versions.finish(tid);
+		lm.releaseAllLocks(tid);
 
     }
 
+    /**
+     * Put the committed image of page back in the pool in its place.
+     */
+    private void restore(Page page) {
+        Page committed = page.getBeforeImage();
+        if (page instanceof HeapPage) {
+            ((HeapPage) committed).setLsn(((HeapPage) page).getLsn());
+        }
+        synchronized (evictionLock) {
+            if (frames != null) {
+                frames.invalidate(page.getId());
+            }
+            bpool.put(committed);
+            policy.pageLoaded(committed.getId());
+        }
+    }
+
+    /**
+     * Append the update records of the pages tid dirtied to the log and
+     * enter those pages in the dirty page table, without forcing the log
+     * or writing the pages.  Called once tid can no longer fail, before its
+     * commit record; later calls for tid do nothing.
+     */
+    public void logPages(TransactionId tid) throws IOException {
+    	ArrayList<PageId> list = lm.getLockedPages(tid);
+    	if (list == null || !logged.add(tid)) {
+    		return;
+    	}
+    	publishVersions(tid, list);
+    	LogFile log = Database.getLogFile();
+    	for (PageId pid : list) {
+    		Page p = bpool.get(pid);
+    		if (p == null || p.isDirty() == null || !p.isDirty().equals(tid)) {
+    			continue;
+    		}
+    		// atomic with respect to checkpoints, which copy the table
+    		synchronized (log) {
+    			long lsn = log.logWrite(tid, p.getBeforeImage(), p);
+    			DirtyEntry old = dirtyPages.get(pid);
+    			if (old != null) {
+    				dirtyPages.put(pid, new DirtyEntry(old.recLsn));
+    			} else if (lsn >= 0) {
+    				dirtyPages.put(pid, new DirtyEntry(lsn));
+    			}
+    		}
+    	}
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -223,7 +607,9 @@ public class BufferPool {
     		 pages = hf.insertTuple(tid, t);
     		 for (Page page : pages) {
     			 page.markDirty(true,tid);
-    			 bpool.put(page.getId(), page);
+    			 if (!workspaces.containsKey(tid)) {
+    				 installPage(page);
+    			 }
     		 }
     	} catch (DbException e){
     		 e.printStackTrace();
@@ -251,7 +637,9 @@ public class BufferPool {
     	ArrayList<Page> pgs = hf.deleteTuple(tid, t);
   		for (Page page : pgs) {
 			 page.markDirty(true,tid);
-			 bpool.put(page.getId(), page);
+			 if (!workspaces.containsKey(tid)) {
+				 installPage(page);
+			 }
 		 }
     }
 
@@ -274,14 +662,7 @@ public class BufferPool {
      * cache.
      */
     public synchronized void discardPage(PageId pid) {
-    	System.out.println("discarding page bpool size = " + bpool.size());
-    	System.out.println("first thing in bufferpool = " + bpool.keySet().toArray()[0]);
-    	if (bpool.keySet().contains(pid)){
-    		System.out.println("removing " + pid + "from bpool");
-    		System.out.println("size = " + bpool.size());
-    		bpool.remove(pid);
-    		System.out.println("size = " + bpool.size());
-    	}                                                                           // cosc460
+    	removePage(pid);                                                            // cosc460
     }
 
     /**
@@ -297,74 +678,216 @@ public class BufferPool {
     	}
     	//System.out.println("This is a page: " + bpool.get(pid));
     	Page pagetoFlush = bpool.get(pid);
-    	if (pagetoFlush != null) {
-    		// append an update record to the log, with 
-            // a before-image and after-image.
-            TransactionId dirtier = pagetoFlush.isDirty();
-            if (dirtier != null){
-              Database.getLogFile().logWrite(dirtier, pagetoFlush.getBeforeImage(), pagetoFlush);
+    	// a clean page needs writing only if its last commit does
+    	if (pagetoFlush != null && (pagetoFlush.isDirty() != null || dirtyPages.containsKey(pid))) {
+            if (logUpdate(pagetoFlush)) {
               Database.getLogFile().force();
             }
-	    	Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(pagetoFlush);
-	    	TransactionId tid = new TransactionId();
-	    	pagetoFlush.markDirty(false, tid);
-	    	bpool.put(pid, pagetoFlush);
+            writePage(pagetoFlush);
     	}
    
     }
+
+    /**
+     * Append an update record to the log, with a before-image and
+     * after-image, if page is dirty.  The log must be forced before the
+     * page is written.
+     *
+     * @return true if a record was appended
+     */
+    private boolean logUpdate(Page page) throws IOException {
+        TransactionId dirtier = page.isDirty();
+        if (dirtier == null) {
+            return false;
+        }
+        Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+        return true;
+    }
+
+    private void writePage(Page page) throws IOException {
+        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+        TransactionId tid = new TransactionId();
+        page.markDirty(false, tid);
+        dirtyPages.remove(page.getId());
+    }
+
+    /**
+     * An entry of the dirty page table.  Each change to a page's entry
+     * makes a new object, so a writer can tell if it changed meanwhile.
+     */
+    private static class DirtyEntry {
+        final long recLsn;
+
+        DirtyEntry(long recLsn) {
+            this.recLsn = recLsn;
+        }
+    }
+
+    /**
+     * @return a copy of the dirty page table: each committed page not on
+     * disk yet, and the LSN of its oldest change that is not
+     */
+    Map<PageId, Long> dirtyPageTable() {
+        HashMap<PageId, Long> table = new HashMap<PageId, Long>();
+        for (Map.Entry<PageId, DirtyEntry> e : dirtyPages.entrySet()) {
+            table.put(e.getKey(), e.getValue().recLsn);
+        }
+        return table;
+    }
+
+    /**
+     * Write the committed image of every page in the dirty page table to
+     * disk.  Pages that a running transaction has dirtied since are written
+     * only if all is true, and stay in the table.
+     */
+    void writeDirtyPages(boolean all) throws IOException {
+        // the log must be on disk before the pages it describes
+        Database.getLogFile().force();
+        for (Map.Entry<PageId, DirtyEntry> e : dirtyPages.entrySet()) {
+            synchronized (this) {
+                Page p = bpool.get(e.getKey());
+                if (p == null) {
+                    // discarded; evictions write the page first
+                    dirtyPages.remove(e.getKey(), e.getValue());
+                } else if (p.isDirty() == null) {
+                    writeCommitted(p);
+                    dirtyPages.remove(e.getKey(), e.getValue());
+                } else if (all) {
+                    writeCommitted(p);
+                }
+            }
+        }
+    }
+
+    private void writeCommitted(Page page) throws IOException {
+        Page committed = page.getBeforeImage();
+        if (page instanceof HeapPage) {
+            ((HeapPage) committed).setLsn(((HeapPage) page).getLsn());
+        }
+        Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(committed);
+    }
+
+    private void startWriter() {
+        synchronized (writerLock) {
+            if (writer == null) {
+                writer = new PageWriter();
+                writer.start();
+            }
+        }
+    }
+
+    /**
+     * Writes committed pages out every WRITE_DELAY_MS, until the dirty page
+     * table is empty or this is no longer the database's pool.
+     */
+    private class PageWriter extends Thread {
+        PageWriter() {
+            super("page writer");
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(WRITE_DELAY_MS);
+                    if (Database.getBufferPool() != BufferPool.this) {
+                        break;
+                    }
+                    writeDirtyPages(false);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    break;
+                }
+                synchronized (writerLock) {
+                    if (dirtyPages.isEmpty()) {
+                        writer = null;
+                        return;
+                    }
+                }
+            }
+            synchronized (writerLock) {
+                writer = null;
+            }
+        }
+    }
     
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write all pages of the specified transaction to disk.  Their update
+     * records share a single log force.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
     	System.out.println("flushing pages!!!");
-    	ArrayList<PageId> list = lm.getLockedPages().get(tid);
+    	ArrayList<PageId> list = lm.getLockedPages(tid);
     	if (list==null) {return;}
+    	publishVersions(tid, list);
+    	ArrayList<Page> pages = new ArrayList<Page>(list.size());
+    	boolean logged = false;
     	for (PageId pid : list) {
-    		flushPage(pid);
-    		//releasePage(tid, pid);
+    		Page p = bpool.get(pid);
+    		if (p != null) {
+    			logged |= logUpdate(p);
+    			pages.add(p);
+    		}
+    	}
+    	if (logged) {
+    		Database.getLogFile().force();
     	}
-    	for (int i=0;i<list.size();i++) {
-    		PageId id = list.get(i);
-    		//releasePage(tid, id);
+    	for (Page p : pages) {
+    		writePage(p);
+    	}
+    }
+
+    /**
+     * Hand the pages tid dirtied to the version store as one commit, before
+     * they are written out.
+     */
+    private void publishVersions(TransactionId tid, ArrayList<PageId> list) throws IOException {
+    	ArrayList<Page> dirtied = new ArrayList<Page>();
+    	for (PageId pid : list) {
+    		Page p = bpool.get(pid);
+    		if (p != null && p.isDirty() != null && p.isDirty().equals(tid)) {
+    			dirtied.add(p);
+    		}
+    	}
+    	try {
+    		versions.publish(tid, dirtied);
+    	} catch (DbException e) {
+    		throw new IOException(e.getMessage());
     	}
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Caller must hold evictionLock.
      */
-    private synchronized void evictPage() throws DbException {
-    	
-		PageId evicted = null;
-		long longestTime = 0;
-		long curr_time = System.currentTimeMillis();
-		Collection<PageId> allPages = pageAccessTime.keySet();
-		for(PageId pg : allPages) {
-			long temp = (curr_time - pageAccessTime.get(pg));
-			System.out.println("pageid in evict = "+ pg);
-			Page page = bpool.get(pg);
-			if(temp > longestTime && page.isDirty()==null) {			// if we find an older page
-			    evicted = pg;					// set pid to be evicted
-			    longestTime = temp;
-			}
-		}
-		if (evicted == null) {
-			throw new DbException("All pages are dirty.");
-		}
-		else 
-			//System.out.println("evicted null" + evicted);
-			//System.out.println("NULL??" + bpool.get(evicted));
-        	//System.out.println("calling flushpage");
-        	if (bpool.containsKey(evicted)) {
-	            //flushPage(evicted);
-	            bpool.remove(evicted);
-	            pageAccessTime.remove(evicted);
-        	}
-        //catch (IOException e) {
-        //    e.printStackTrace();
-        //}   
-           
+    private void evictPage() throws DbException {
+        PageId evicted = policy.chooseVictim(new EvictionPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                Page page = bpool.get(pid);
+                return page == null || page.isDirty() == null;
+            }
+        });
+        if (evicted == null) {
+            throw new DbException("All pages are dirty.");
+        }
+        DirtyEntry entry = dirtyPages.get(evicted);
+        Page page = bpool.get(evicted);
+        if (entry != null && page != null) {
+            // committed but not written yet; the commit forced its log
+            try {
+                Database.getCatalog().getDatabaseFile(evicted.getTableId()).writePage(page);
+            } catch (IOException e) {
+                throw new DbException("could not write page " + evicted + ": " + e.getMessage());
+            }
+            dirtyPages.remove(evicted, entry);
+        }
+        page = bpool.remove(evicted);
+        if (frames != null && page != null) {
+            frames.store(page);
+        }
     }
 
 }
@@ -167,6 +167,12 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form name (field type, field type, ...), optionally
+     * followed by "slotted" to store the table in slotted pages, which keep
+     * strings at their actual length, or "pax" to store each page column by
+     * column (see {@link HeapFile.PageFormat}).  Such a table's file must
+     * have been written by SimpleDB in that format; HeapFileEncoder writes
+     * fixed-size pages only.
      *
      * @param catalogFile
      */
@@ -208,7 +214,17 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                String option = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                if (option.equals("slotted")) {
+                    format = HeapFile.PageFormat.SLOTTED;
+                } else if (option.equals("pax")) {
+                    format = HeapFile.PageFormat.PAX;
+                } else if (!option.equals("")) {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, format);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t + (primaryKey.equals("")? "":(" key is " + primaryKey)));
             }
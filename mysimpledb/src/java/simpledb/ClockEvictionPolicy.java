@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) eviction.  Resident pages sit in a ring of frames,
+ * each with a reference bit that is set on every hit.  The clock hand sweeps
+ * the ring, clearing set bits and evicting the first clean page whose bit is
+ * already clear.
+ * <p/>
+ * A hit only sets a volatile flag, so this is the BufferPool's default
+ * policy: it keeps the hit path free of locks.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        volatile boolean referenced = true;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<PageId, Frame>();
+    private final ArrayList<Frame> ring = new ArrayList<Frame>();
+    private final LinkedList<Integer> freeSlots = new LinkedList<Integer>();
+    private int hand = 0;
+
+    public synchronized void pageLoaded(PageId pid) {
+        Frame old = frames.get(pid);
+        if (old != null) {
+            old.referenced = true;
+            return;
+        }
+        Frame f;
+        if (freeSlots.isEmpty()) {
+            f = new Frame(pid, ring.size());
+            ring.add(f);
+        } else {
+            f = new Frame(pid, freeSlots.removeFirst());
+            ring.set(f.slot, f);
+        }
+        frames.put(pid, f);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null) {
+            f.referenced = true;
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Frame f = frames.remove(pid);
+        if (f != null) {
+            ring.set(f.slot, null);
+            freeSlots.add(f.slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        int n = ring.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            Frame f = ring.get(hand);
+            hand = (hand + 1) % n;
+            if (f == null) {
+                continue;
+            }
+            if (f.referenced) {
+                f.referenced = false;
+            } else if (evictable.canEvict(f.pid)) {
+                pageRemoved(f.pid);
+                return f.pid;
+            }
+        }
+        return null;
+    }
+}
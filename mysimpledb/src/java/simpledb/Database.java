@@ -61,11 +61,27 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, new ClockEvictionPolicy());
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that evicts pages with the given policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy) {
+        return resetBufferPool(pages, policy, 0);
+    }
+
+    /**
+     * Method used for testing -- create a new frame-based buffer pool with
+     * the given number of off-heap page frames and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy, int frames) {
         java.lang.reflect.Field bufferPoolF = null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy, frames));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
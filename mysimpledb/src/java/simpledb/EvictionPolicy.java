@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * An EvictionPolicy decides which resident page the BufferPool discards
+ * when it needs room for a new one.  The BufferPool tells the policy about
+ * every page it admits, every cache hit and every page it drops for other
+ * reasons (abort, discardPage); the policy answers with a victim.
+ * <p/>
+ * Implementations must be thread-safe.  {@link #pageAccessed} is called on
+ * every cache hit with no BufferPool lock held, so it should be cheap;
+ * {@link #chooseVictim} should run in amortized constant time, apart from
+ * skipping over pages that are not evictable.
+ *
+ * @see ClockEvictionPolicy
+ * @see LruKEvictionPolicy
+ * @see TwoQueueEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Tells the policy whether a candidate page may be evicted right now.
+     * BufferPool is NO STEAL, so dirty pages are never evictable.
+     */
+    public interface Evictable {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * A page was read from disk and is now resident.
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * A resident page was requested again.
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * A page left the pool for a reason other than eviction.
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick a resident page to evict and forget about it.
+     *
+     * @param evictable filter for pages that may not be evicted right now
+     * @return the victim, or null if no resident page can be evicted
+     */
+    public PageId chooseVictim(Evictable evictable);
+}
@@ -11,6 +11,9 @@ public class Filter extends Operator {
 
     private Predicate p;
     private DbIterator child;
+    // true if child already applies p
+    private boolean pushedDown;
+
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -33,6 +36,8 @@ public class Filter extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // let a scan test the predicate before it decodes tuples
+        pushedDown = child instanceof SeqScan && ((SeqScan) child).pushDown(p);
         child.open();
         super.open();
     }
@@ -59,7 +64,7 @@ public class Filter extends Operator {
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
         	Tuple tup = child.next();
-        	if (p.filter(tup)) {
+        	if (pushedDown || p.filter(tup)) {
         		return tup;
         	}
         }
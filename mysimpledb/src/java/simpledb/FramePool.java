@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * FramePool is an off-heap second tier for the BufferPool.  It allocates
+ * direct ByteBuffers up front and splits them into fixed frames of
+ * {@link BufferPool#getPageSize()} bytes, holding raw page images only.
+ * <p/>
+ * The BufferPool keeps its decoded Page objects (and their Tuple and Field
+ * objects) for the hot set it was sized for.  Clean pages it evicts are
+ * copied into a frame here instead of being dropped, and a later miss on
+ * one of them is decoded from the frame rather than read from disk.  A
+ * page lives in exactly one tier at a time: loading a page moves it out of
+ * its frame.  Since the bytes sit outside the Java heap, a pool of several
+ * GB costs the garbage collector nothing.
+ * <p/>
+ * Frames are recycled with CLOCK when the pool is full.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy, int)
+ */
+class FramePool {
+
+    // largest direct buffer we allocate; a single ByteBuffer is capped at 2GB
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private static final EvictionPolicy.Evictable ANY_FRAME = new EvictionPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static class Entry {
+        final int frame;
+        final Constructor<?> pageConstructor;
+
+        Entry(int frame, Constructor<?> pageConstructor) {
+            this.frame = frame;
+            this.pageConstructor = pageConstructor;
+        }
+    }
+
+    private final int pageSize;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    private final HashMap<PageId, Entry> entries = new HashMap<PageId, Entry>();
+    private final LinkedList<Integer> freeFrames = new LinkedList<Integer>();
+    private final ClockEvictionPolicy clock = new ClockEvictionPolicy();
+    private final HashMap<Class<?>, Constructor<?>> constructors = new HashMap<Class<?>, Constructor<?>>();
+
+    /**
+     * @param numFrames number of page frames to allocate off-heap
+     */
+    public FramePool(int numFrames) {
+        if (numFrames < 1) {
+            throw new IllegalArgumentException("need at least one frame");
+        }
+        pageSize = BufferPool.getPageSize();
+        framesPerChunk = Math.max(1, MAX_CHUNK_BYTES / pageSize);
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int framesInChunk = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(framesInChunk * pageSize);
+        }
+        for (int i = 0; i < numFrames; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    /**
+     * Copy a clean page into a frame, recycling the least recently stored
+     * frame if all of them are in use.
+     */
+    public synchronized void store(Page page) {
+        PageId pid = page.getId();
+        byte[] data = page.getPageData();
+        Entry e = entries.get(pid);
+        if (e == null) {
+            int frame;
+            if (freeFrames.isEmpty()) {
+                PageId victim = clock.chooseVictim(ANY_FRAME);
+                frame = entries.remove(victim).frame;
+            } else {
+                frame = freeFrames.removeFirst();
+            }
+            e = new Entry(frame, constructorFor(page.getClass()));
+            entries.put(pid, e);
+            clock.pageLoaded(pid);
+        }
+        ByteBuffer chunk = chunkFor(e.frame);
+        chunk.position(offsetFor(e.frame));
+        chunk.put(data, 0, pageSize);
+    }
+
+    /**
+     * Decode the page with the given id from its frame and release the
+     * frame.
+     *
+     * @return the decoded page, or null if pid is not in the pool
+     */
+    public Page load(PageId pid) throws DbException {
+        byte[] data = new byte[pageSize];
+        Entry e;
+        synchronized (this) {
+            e = entries.remove(pid);
+            if (e == null) {
+                return null;
+            }
+            ByteBuffer chunk = chunkFor(e.frame);
+            chunk.position(offsetFor(e.frame));
+            chunk.get(data, 0, pageSize);
+            clock.pageRemoved(pid);
+            freeFrames.add(e.frame);
+        }
+        // decode outside the monitor; this is where the tuples get built
+        try {
+            return (Page) e.pageConstructor.newInstance(pid, data);
+        } catch (Exception ex) {
+            throw new DbException("could not decode page " + pid + ": " + ex);
+        }
+    }
+
+    /**
+     * Forget any copy of pid, e.g. because the page was changed on disk
+     * behind the pool's back.
+     */
+    public synchronized void invalidate(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e != null) {
+            clock.pageRemoved(pid);
+            freeFrames.add(e.frame);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private ByteBuffer chunkFor(int frame) {
+        return chunks[frame / framesPerChunk];
+    }
+
+    private int offsetFor(int frame) {
+        return (frame % framesPerChunk) * pageSize;
+    }
+
+    /**
+     * Pages must have a constructor of the form Page(PageId id, byte[] data);
+     * see {@link Page}.
+     */
+    private Constructor<?> constructorFor(Class<?> pageClass) {
+        Constructor<?> c = constructors.get(pageClass);
+        if (c == null) {
+            for (Constructor<?> candidate : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = candidate.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    c = candidate;
+                    break;
+                }
+            }
+            if (c == null) {
+                throw new IllegalArgumentException(pageClass.getName() + " has no (PageId, byte[]) constructor");
+            }
+            constructors.put(pageClass, c);
+        }
+        return c;
+    }
+}
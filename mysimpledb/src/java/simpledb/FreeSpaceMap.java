@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile are full, so that an
+ * insert can go straight to a page with an empty slot instead of scanning
+ * the file for one.
+ * <p/>
+ * The map is a bitmap with one bit per heap page, set if the page is full.
+ * It is kept in a file beside the heap file, named after it with ".fsm"
+ * appended, in chunks of {@link #CHUNK_SIZE} bytes; a chunk is written as
+ * soon as one of its bits changes, which happens only when a page fills up
+ * or gets room again.
+ * <p/>
+ * The map is only a hint and is not logged.  A page it marks as having room
+ * may be full, which the insert that finds so corrects; a page it marks as
+ * full may have room, until the page is next written (see
+ * {@link HeapFile#writePage}).  Pages past the end of the heap file when
+ * the map is loaded count as having room.
+ */
+class FreeSpaceMap {
+
+    /**
+     * Bytes per chunk of the map file; one chunk covers 8 times as many
+     * heap pages.
+     */
+    static final int CHUNK_SIZE = 512;
+
+    private final HeapFile heapFile;
+    private final PageChannel io;
+    private BitSet full;
+    // no page before this one has room
+    private int cursor;
+
+    FreeSpaceMap(HeapFile heapFile) {
+        this.heapFile = heapFile;
+        this.io = new PageChannel(HeapFile.fsmFile(heapFile.getFile()), false);
+    }
+
+    private BitSet bits() throws IOException {
+        if (full != null) {
+            return full;
+        }
+        full = new BitSet();
+        int numPages = heapFile.numPages();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int bitsPerChunk = CHUNK_SIZE * 8;
+        for (int c = 0; c * bitsPerChunk < numPages && io.readPage(c, chunk); c++) {
+            for (int i = 0; i < bitsPerChunk; i++) {
+                int pgNo = c * bitsPerChunk + i;
+                if (pgNo < numPages && (chunk[i / 8] & (1 << (i % 8))) != 0) {
+                    full.set(pgNo);
+                }
+            }
+        }
+        return full;
+    }
+
+    /**
+     * @return a page from from on and before numPages that may have an empty
+     * slot, or -1 if all of them are full
+     */
+    synchronized int findFree(int from, int numPages) throws IOException {
+        int pgNo;
+        if (from <= cursor) {
+            cursor = bits().nextClearBit(cursor);
+            pgNo = cursor;
+        } else {
+            pgNo = bits().nextClearBit(from);
+        }
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Record whether page pgNo has an empty slot.
+     */
+    synchronized void update(int pgNo, boolean hasRoom) throws IOException {
+        BitSet bits = bits();
+        if (bits.get(pgNo) != hasRoom) {
+            return;
+        }
+        bits.set(pgNo, !hasRoom);
+        if (hasRoom && pgNo < cursor) {
+            cursor = pgNo;
+        }
+        int bitsPerChunk = CHUNK_SIZE * 8;
+        int c = pgNo / bitsPerChunk;
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (int i = bits.nextSetBit(c * bitsPerChunk); i >= 0 && i < (c + 1) * bitsPerChunk;
+             i = bits.nextSetBit(i + 1)) {
+            int bit = i - c * bitsPerChunk;
+            chunk[bit / 8] |= 1 << (bit % 8);
+        }
+        io.writePage(c, chunk);
+    }
+}
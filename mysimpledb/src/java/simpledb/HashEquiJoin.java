@@ -1,14 +1,47 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join by building a hash
+ * table on one input and probing it with the other.
+ * <p/>
+ * open() reads both children in lockstep until one of them runs out; that
+ * one is the smaller input and becomes the build side.  If both inputs are
+ * still going when either has buffered maxBuildTuples tuples, the join
+ * switches to a Grace hash join: both inputs are partitioned by join-key
+ * hash into {@link SpillFile}s, and each pair of partitions is then joined
+ * in memory, building on the smaller of the two.  A partition that is still
+ * too large is partitioned again with a different hash, up to
+ * {@link #MAX_PARTITION_DEPTH} times.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Default memory budget, in tuples, for the build side.
+     */
+    public static final int DEFAULT_MAX_BUILD_TUPLES = 100000;
+
+    static final int NUM_PARTITIONS = 16;
+    static final int MAX_PARTITION_DEPTH = 3;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int maxBuildTuples;
+    private TupleDesc td;
+
+    // state of the partition currently being joined
+    private HashMap<Field, ArrayList<Tuple>> table;
+    private boolean buildIsLeft;
+    private TupleSource probe;
+    private Tuple probeTuple;
+    // partitions left to join when the inputs did not fit in memory
+    private LinkedList<PartitionPair> pending = new LinkedList<PartitionPair>();
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -17,42 +50,61 @@ public class HashEquiJoin extends Operator {
      * @param child1 Iterator for the left(outer) relation to join
      * @param child2 Iterator for the right(inner) relation to join
      */
-
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
-        // some code goes here
-        throw new UnsupportedOperationException();
+        this(p, child1, child2, DEFAULT_MAX_BUILD_TUPLES);
     }
+
+    /**
+     * @param maxBuildTuples the most tuples to hold in an in-memory hash
+     *                       table before partitioning to disk
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int maxBuildTuples) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("HashEquiJoin only supports EQUALS, got " + p.getOperator());
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.maxBuildTuples = Math.max(1, maxBuildTuples);
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
     public JoinPredicate getJoinPredicate() {
-        // some code goes here
-        return null;
+        return p;
     }
 
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
     public String getJoinField1Name() {
-        // some code goes here
-        return null;
+        return child1.getTupleDesc().getFieldName(p.getField1());
     }
 
     public String getJoinField2Name() {
-        // some code goes here
-        return null;
+        return child2.getTupleDesc().getFieldName(p.getField2());
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        child1.open();
+        child2.open();
+        super.open();
+        start();
     }
 
     public void close() {
-        // some code goes here
+        reset();
+        child1.close();
+        child2.close();
+        super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        reset();
+        child1.rewind();
+        child2.rewind();
+        start();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -76,19 +128,277 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                Tuple match = listIt.next();
+                return buildIsLeft ? Tuple.merge(match, probeTuple, td) : Tuple.merge(probeTuple, match, td);
+            }
+            listIt = null;
+            probeTuple = probe == null ? null : probe.next();
+            if (probeTuple == null) {
+                if (!nextPartition()) {
+                    return null;
+                }
+                continue;
+            }
+            ArrayList<Tuple> matches = table.get(probeTuple.getField(buildIsLeft ? p.getField2() : p.getField1()));
+            if (matches != null) {
+                listIt = matches.iterator();
+            }
+        }
     }
 
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new DbIterator[]{this.child1, this.child2};
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+    /**
+     * Read both inputs in lockstep to find the smaller one, then either
+     * build on it in memory or fall back to partitioning.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        boolean leftDone = false, rightDone = false;
+        while (!leftDone && !rightDone
+                && (left.size() < maxBuildTuples || right.size() < maxBuildTuples)) {
+            if (child1.hasNext()) {
+                left.add(child1.next());
+            } else {
+                leftDone = true;
+            }
+            if (child2.hasNext()) {
+                right.add(child2.next());
+            } else {
+                rightDone = true;
+            }
+        }
+        if (leftDone && left.size() <= maxBuildTuples) {
+            build(left, true, new ListThenIterator(right, child2));
+        } else if (rightDone && right.size() <= maxBuildTuples) {
+            build(right, false, new ListThenIterator(left, child1));
+        } else {
+            partitionInputs(left, right);
+            nextPartition();
+        }
+    }
+
+    private void build(List<Tuple> buildSide, boolean isLeft, TupleSource probeSide) {
+        buildIsLeft = isLeft;
+        int field = isLeft ? p.getField1() : p.getField2();
+        table = new HashMap<Field, ArrayList<Tuple>>(buildSide.size() * 2);
+        for (Tuple t : buildSide) {
+            Field key = t.getField(field);
+            ArrayList<Tuple> bucket = table.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                table.put(key, bucket);
+            }
+            bucket.add(t);
+        }
+        probe = probeSide;
+        probeTuple = null;
+        listIt = null;
+    }
+
+    /**
+     * Spill everything buffered so far, and the rest of both children, to
+     * per-partition files.
+     */
+    private void partitionInputs(List<Tuple> left, List<Tuple> right)
+            throws DbException, TransactionAbortedException {
+        try {
+            SpillFile[] leftParts = newPartitions(child1.getTupleDesc());
+            SpillFile[] rightParts = newPartitions(child2.getTupleDesc());
+            for (Tuple t : left) {
+                leftParts[partitionOf(t.getField(p.getField1()), 0)].add(t);
+            }
+            left.clear();
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                leftParts[partitionOf(t.getField(p.getField1()), 0)].add(t);
+            }
+            for (Tuple t : right) {
+                rightParts[partitionOf(t.getField(p.getField2()), 0)].add(t);
+            }
+            right.clear();
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                rightParts[partitionOf(t.getField(p.getField2()), 0)].add(t);
+            }
+            addPartitions(leftParts, rightParts, 1);
+        } catch (IOException e) {
+            throw new DbException("hash join could not spill: " + e.getMessage());
+        }
+    }
+
+    private void addPartitions(SpillFile[] leftParts, SpillFile[] rightParts, int depth) {
+        for (int i = 0; i < leftParts.length; i++) {
+            if (leftParts[i].size() == 0 || rightParts[i].size() == 0) {
+                // nothing in this partition can match
+                leftParts[i].delete();
+                rightParts[i].delete();
+            } else {
+                pending.add(new PartitionPair(leftParts[i], rightParts[i], depth));
+            }
+        }
+    }
+
+    /**
+     * Load the next non-empty partition pair into the hash table.
+     *
+     * @return false if there are no partitions left
+     */
+    private boolean nextPartition() throws DbException {
+        try {
+            while (!pending.isEmpty()) {
+                PartitionPair pair = pending.removeFirst();
+                boolean buildLeft = pair.left.size() <= pair.right.size();
+                SpillFile buildFile = buildLeft ? pair.left : pair.right;
+                SpillFile probeFile = buildLeft ? pair.right : pair.left;
+                if (buildFile.size() > maxBuildTuples && pair.depth < MAX_PARTITION_DEPTH) {
+                    repartition(pair);
+                    continue;
+                }
+                ArrayList<Tuple> buildSide = new ArrayList<Tuple>(buildFile.size());
+                SpillFile.Reader r = buildFile.reader();
+                for (Tuple t = r.next(); t != null; t = r.next()) {
+                    buildSide.add(t);
+                }
+                buildFile.delete();
+                build(buildSide, buildLeft, new SpillSource(probeFile));
+                return true;
+            }
+        } catch (IOException e) {
+            throw new DbException("hash join could not read spilled partition: " + e.getMessage());
+        }
+        table = null;
+        probe = null;
+        return false;
+    }
+
+    private void repartition(PartitionPair pair) throws IOException {
+        SpillFile[] leftParts = newPartitions(pair.left.getTupleDesc());
+        SpillFile[] rightParts = newPartitions(pair.right.getTupleDesc());
+        SpillFile.Reader r = pair.left.reader();
+        for (Tuple t = r.next(); t != null; t = r.next()) {
+            leftParts[partitionOf(t.getField(p.getField1()), pair.depth)].add(t);
+        }
+        r = pair.right.reader();
+        for (Tuple t = r.next(); t != null; t = r.next()) {
+            rightParts[partitionOf(t.getField(p.getField2()), pair.depth)].add(t);
+        }
+        pair.left.delete();
+        pair.right.delete();
+        addPartitions(leftParts, rightParts, pair.depth + 1);
+    }
+
+    private static SpillFile[] newPartitions(TupleDesc td) throws IOException {
+        SpillFile[] parts = new SpillFile[NUM_PARTITIONS];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new SpillFile(td);
+        }
+        return parts;
+    }
+
+    private static int partitionOf(Field key, int depth) {
+        return SpillFile.partitionOf(key.hashCode(), depth, NUM_PARTITIONS);
+    }
+
+    private void reset() {
+        if (probe != null) {
+            probe.close();
+        }
+        for (PartitionPair pair : pending) {
+            pair.left.delete();
+            pair.right.delete();
+        }
+        pending.clear();
+        table = null;
+        probe = null;
+        probeTuple = null;
+        listIt = null;
+    }
+
+    /**
+     * A stream of probe-side tuples.
+     */
+    private interface TupleSource {
+        /**
+         * @return the next tuple, or null at the end
+         */
+        Tuple next() throws DbException, TransactionAbortedException;
+
+        void close();
     }
 
+    /**
+     * Tuples buffered while looking for the smaller input, followed by the
+     * rest of that child.
+     */
+    private static class ListThenIterator implements TupleSource {
+        private final Iterator<Tuple> buffered;
+        private final DbIterator rest;
+
+        ListThenIterator(List<Tuple> buffered, DbIterator rest) {
+            this.buffered = buffered.iterator();
+            this.rest = rest;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (buffered.hasNext()) {
+                return buffered.next();
+            }
+            return rest.hasNext() ? rest.next() : null;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class SpillSource implements TupleSource {
+        private final SpillFile file;
+        private final SpillFile.Reader reader;
+
+        SpillSource(SpillFile file) throws IOException {
+            this.file = file;
+            this.reader = file.reader();
+        }
+
+        public Tuple next() throws DbException {
+            try {
+                Tuple t = reader.next();
+                if (t == null) {
+                    file.delete();
+                }
+                return t;
+            } catch (IOException e) {
+                throw new DbException("hash join could not read spilled partition: " + e.getMessage());
+            }
+        }
+
+        public void close() {
+            reader.close();
+            file.delete();
+        }
+    }
+
+    private static class PartitionPair {
+        final SpillFile left;
+        final SpillFile right;
+        final int depth;
+
+        PartitionPair(SpillFile left, SpillFile right, int depth) {
+            this.left = left;
+            this.right = right;
+            this.depth = depth;
+        }
+    }
 }
@@ -2,6 +2,9 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -16,8 +19,42 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * How pages are read from disk.  POSITIONAL issues one positional read
+     * per page on a channel kept open for the file; MAPPED memory-maps the
+     * file, which is cheaper for read-mostly tables.
+     */
+    public enum IoMode {
+        POSITIONAL, MAPPED
+    }
+
+    /**
+     * How tuples are laid out on pages.  FIXED gives every tuple the same
+     * size, with strings padded to {@link Type#STRING_LEN}; SLOTTED stores
+     * variable-length records (see {@link SlottedHeapPage}); PAX stores
+     * fixed-size fields column by column (see {@link PaxHeapPage}).
+     */
+    public enum PageFormat {
+        FIXED, SLOTTED, PAX
+    }
+
 	private File f;
 	private TupleDesc td;
+	private volatile PageChannel io;
+	// held shared around every use of io, and exclusively by setIoMode
+	private final ReentrantReadWriteLock ioLock = new ReentrantReadWriteLock();
+	// page LSNs, one long per page, kept beside the data file
+	private final File lsnFile;
+	private final PageChannel lsns;
+	// false until the LSN file exists, so reads need not look for it
+	private volatile boolean hasLsns;
+	// lets read-ahead detect pages written while it was reading them
+	private final AtomicInteger writesInProgress = new AtomicInteger();
+	private final AtomicLong writesStarted = new AtomicLong();
+	private final FreeSpaceMap freeSpace;
+	private final PageFormat format;
+	private volatile boolean scansReadAhead;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -25,8 +62,128 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, IoMode.POSITIONAL);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, using the given
+     * I/O mode.
+     */
+    public HeapFile(File f, TupleDesc td, IoMode mode) {
+        this(f, td, mode, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * the given format.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, IoMode.POSITIONAL, format);
+    }
+
+    public HeapFile(File f, TupleDesc td, IoMode mode, PageFormat format) {
         this.f = f;
         this.td = td;
+        this.format = format;
+        this.io = new PageChannel(f, mode == IoMode.MAPPED);
+        this.lsnFile = lsnFile(f);
+        this.lsns = new PageChannel(lsnFile, false);
+        this.hasLsns = lsnFile.exists();
+        this.freeSpace = new FreeSpaceMap(this);
+        this.scansReadAhead = getClass() == HeapFile.class;
+    }
+
+    /**
+     * @return the file beside table file f that holds its page LSNs
+     */
+    static File lsnFile(File f) {
+        return new File(f.getPath() + ".lsn");
+    }
+
+    /**
+     * @return the file beside table file f that holds its free space map
+     */
+    static File fsmFile(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /**
+     * Delete the files kept beside table file f.  Whoever deletes or
+     * recreates a table file must call this too, or a new table at the
+     * same path would pick up the old table's LSNs and free space map.
+     */
+    public static void deleteSidecars(File f) {
+        lsnFile(f).delete();
+        fsmFile(f).delete();
+    }
+
+    /**
+     * Delete table file f and the files kept beside it when the VM exits.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        lsnFile(f).deleteOnExit();
+        fsmFile(f).deleteOnExit();
+    }
+
+    /**
+     * Turn read-ahead for scans of this file on or off.  Read-ahead loads
+     * pages with {@link #readPages}, which does not go through
+     * {@link #readPage}, so it is off by default for subclasses, whose
+     * readPage overrides would miss those reads; it is on for HeapFile.
+     */
+    public void setReadAhead(boolean on) {
+        scansReadAhead = on;
+    }
+
+    boolean readsAhead() {
+        return scansReadAhead;
+    }
+
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    /**
+     * @return a page of this file's format holding data
+     */
+    private HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        switch (format) {
+            case SLOTTED:
+                return new SlottedHeapPage(pid, data);
+            case PAX:
+                return new PaxHeapPage(pid, data);
+            default:
+                return new HeapPage(pid, data);
+        }
+    }
+
+    /**
+     * Switch this file between positional and memory-mapped reads.  Waits
+     * for reads and writes already using the old channel before closing it.
+     */
+    public void setIoMode(IoMode mode) throws IOException {
+        PageChannel old;
+        ioLock.writeLock().lock();
+        try {
+            old = io;
+            io = new PageChannel(f, mode == IoMode.MAPPED);
+        } finally {
+            ioLock.writeLock().unlock();
+        }
+        old.close();
+    }
+
+    /**
+     * Force pages written to this file out to disk.
+     */
+    public void force() throws IOException {
+        ioLock.readLock().lock();
+        try {
+            io.force();
+        } finally {
+            ioLock.readLock().unlock();
+        }
     }
 
     /**
@@ -61,52 +218,110 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Pages keep the LSN of the last log record applied to them, so that
+     * recovery can skip records a page already reflects.  The page format
+     * has no room for it, so page LSNs are stored in a separate file named
+     * after this one with ".lsn" appended, which is created when the first
+     * logged page is written.  A missing LSN reads as 0, which only makes
+     * recovery redo more than it has to; an LSN ahead of the log would make
+     * it skip records, which is why a new log carries on from the LSNs of
+     * the one before it.
+     */
+    private long readLsn(int pgNo) throws IOException {
+        byte[] b = new byte[LogFile.LONG_SIZE];
+        if (!hasLsns || !lsns.readPage(pgNo, b)) {
+            return 0;
+        }
+        return new DataInputStream(new ByteArrayInputStream(b)).readLong();
+    }
+
+    private void writeLsn(int pgNo, long lsn) throws IOException {
+        if (lsn == 0) {
+            // not logged since read, so the stored LSN is still right
+            return;
+        }
+        ByteArrayOutputStream b = new ByteArrayOutputStream(LogFile.LONG_SIZE);
+        new DataOutputStream(b).writeLong(lsn);
+        lsns.writePage(pgNo, b.toByteArray());
+        hasLsns = true;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-    	System.out.println("READING FROM DISK");
-    	int pgNo = pid.pageNumber();
         byte[] b = new byte[BufferPool.getPageSize()];
-        BufferedInputStream fis;
-        Page pg;
+        ioLock.readLock().lock();
         try {
-        	//System.out.println("file (in heap file read method) = "+ f);
-			fis = new BufferedInputStream(new FileInputStream(f));
-			fis.skip( (pgNo)*BufferPool.getPageSize() );
-			int bytesRead = fis.read(b,0,BufferPool.getPageSize());
-			if(bytesRead != BufferPool.getPageSize()){
-				throw new RuntimeException();
-			}
-	    fis.close();
-	    HeapPageId hpid = ((HeapPageId) pid);
-	    //System.out.println("pid in read page method is " + hpid.hashCode());
-	    System.out.println("read the page from file");
-	    pg = new HeapPage(hpid,b); 
-		} catch (Exception e) {
-			System.out.println("error in read page");
-			throw new IllegalArgumentException();
-		}
-       return pg;
+            if (!io.readPage(pid.pageNumber(), b)) {
+                throw new IllegalArgumentException("page " + pid + " is past the end of " + f);
+            }
+            HeapPage page = newPage((HeapPageId) pid, b);
+            page.setLsn(readLsn(pid.pageNumber()));
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("error reading page " + pid + ": " + e);
+        } finally {
+            ioLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read up to count consecutive pages starting at firstPgNo with one
+     * multi-page read.  Used by {@link ReadAhead}; bypasses the BufferPool.
+     *
+     * @return the pages read, fewer than count if the file ends first
+     */
+    public List<Page> readPages(int firstPgNo, int count) throws IOException {
+        byte[][] data = new byte[count][BufferPool.getPageSize()];
+        int n;
+        ioLock.readLock().lock();
+        try {
+            n = io.readPages(firstPgNo, data);
+        } finally {
+            ioLock.readLock().unlock();
+        }
+        List<Page> pages = new ArrayList<Page>(n);
+        for (int i = 0; i < n; i++) {
+            HeapPage page = newPage(new HeapPageId(getId(), firstPgNo + i), data[i]);
+            page.setLsn(readLsn(firstPgNo + i));
+            pages.add(page);
+        }
+        return pages;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-    	System.out.println("!!!!!!!!!! ABOUT TO WRITE PAGE " + page);
-    	 try {
-    		 PageId pid= page.getId();
-    		 HeapPageId hpid= (HeapPageId)pid;
-    		 RandomAccessFile file = new RandomAccessFile(f,"rw");
-    		 int offset = pid.pageNumber()*BufferPool.getPageSize();
-    		 byte[] b=new byte[BufferPool.getPageSize()];
-    		 b=page.getPageData();
-    		 System.out.println(Arrays.toString(b));
-    		 file.seek(offset);
-    		 file.write(b, 0, BufferPool.getPageSize());
-    		 file.close();
-    	} catch (Exception e) {
-        	System.out.println("error in write page");
-        	throw new IllegalArgumentException();
+        writesInProgress.incrementAndGet();
+        writesStarted.incrementAndGet();
+        ioLock.readLock().lock();
+        try {
+            io.writePage(page.getId().pageNumber(), page.getPageData());
+            if (page instanceof HeapPage) {
+                writeLsn(page.getId().pageNumber(), ((HeapPage) page).getLsn());
+                freeSpace.update(page.getId().pageNumber(), ((HeapPage) page).getNumEmptySlots() > 0);
+            }
+        } finally {
+            ioLock.readLock().unlock();
+            writesInProgress.decrementAndGet();
         }
-        
+    }
+
+    /**
+     * @return a token for the current on-disk contents of this file, to pass
+     * to {@link #unchangedSince} after reading pages outside the
+     * BufferPool; -1 if a write is in progress right now.
+     */
+    long writeVersion() {
+        long v = writesStarted.get();
+        return writesInProgress.get() > 0 ? -1 : v;
+    }
+
+    /**
+     * @return true if no page of this file has been written since
+     * {@link #writeVersion} returned version.
+     */
+    boolean unchangedSince(long version) {
+        return version >= 0 && writesStarted.get() == version;
     }
 
     /**
@@ -121,46 +336,70 @@ public class HeapFile implements DbFile {
         return (int)Math.ceil(fileSize/(pageSize));
     }
 
-    
-    public PageId findPage(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
-    	System.out.println("findpage");
-    	boolean haveLockFlag = false;
-    	HeapPage page = null;
-    	
-    	for (int i = 0; i < numPages(); i++) {
-    		
-    		HeapPageId hpid = new HeapPageId(getId(), i);
-    		haveLockFlag = Database.getBufferPool().holdsLock(tid, hpid);
-    		page = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
-    		if (page.getNumEmptySlots() != 0) {
+    /**
+     * Find a page with room for t for tid, appending an empty page if
+     * there is none.  The free-space map says which pages to look at, so
+     * only pages that turn out to be full after all are locked in vain.
+     * On slotted pages the map only says whether the smallest tuple fits,
+     * so a page may also be passed over because t is too big for it.
+     */
+    public PageId findPage(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
+    	int numPages = numPages();
+    	for (int pgNo = freeSpace.findFree(0, numPages); pgNo >= 0; pgNo = freeSpace.findFree(pgNo + 1, numPages)) {
+    		HeapPageId hpid = new HeapPageId(getId(), pgNo);
+    		boolean haveLockFlag = Database.getBufferPool().holdsLock(tid, hpid);
+    		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_ONLY);
+    		if (page.hasRoomFor(t)) {
     			return hpid;
     		}
-    		else {
-    			if (!haveLockFlag) {
-    				System.out.println("this one???");
-    				Database.getBufferPool().releasePage(tid, hpid);
-    			}
+    		if (page.getNumEmptySlots() == 0) {
+    			// the map was out of date
+    			freeSpace.update(pgNo, false);
+    		}
+    		if (!haveLockFlag) {
+    			Database.getBufferPool().releasePage(tid, hpid);
     		}
     	}
-    	//exits for loop must mean that all pages in bpool are full -- create new page
+    	//all pages are full -- create new page
+    	return appendPage();
+    }
+
+    /**
+     * Write an empty page at the end of the file.  Appends are serialized
+     * so that two inserters never write the same new page, which could wipe
+     * out tuples already flushed to it; no lock is waited for meanwhile.
+     */
+    private synchronized HeapPageId appendPage() throws IOException {
     	HeapPageId newHpid = new HeapPageId(getId(), numPages());
-		HeapPage newPg = new HeapPage(newHpid, HeapPage.createEmptyPageData());
-		writePage(newPg);
-		return newHpid;
+    	writePage(newPage(newHpid, HeapPage.createEmptyPageData()));
+    	return newHpid;
     }
-    
+
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+    	// page locks are waited for without holding this file's monitor: the
+    	// waits-for graph cannot see a thread blocked on a monitor, so a
+    	// deadlock through it would never be broken
     	ArrayList<Page> list = new ArrayList<Page>();
-	    synchronized(this) {
-    		HeapPageId hpid = (HeapPageId)findPage(tid);
-    		HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
-			pg.insertTuple(t);
-			pg.markDirty(true, tid);
-			list.add(pg);
-	    }
-		return list;
+    	HeapPage pg;
+    	while (true) {
+    		HeapPageId hpid = (HeapPageId)findPage(tid, t);
+    		pg = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
+    		if (pg.hasRoomFor(t)) {
+    			break;
+    		}
+    		if (pg.usedSlots().length == 0) {
+    			throw new DbException("tuple does not fit on an empty page");
+    		}
+    		// a page just appended is not locked yet, so another
+    		// transaction may have filled it first
+    	}
+    	pg.insertTuple(t);
+    	pg.markDirty(true, tid);
+    	freeSpace.update(pg.getId().pageNumber(), pg.getNumEmptySlots() > 0);
+    	list.add(pg);
+    	return list;
     }
 
     // see DbFile.java for javadocs
@@ -168,21 +407,55 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
     	ArrayList<Page> list = new ArrayList<Page>();
         PageId pid = t.getRecordId().getPageId();
-        HeapPage pg;
-        synchronized(this) {
-        	pg = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
-        	pg.deleteTuple(t);
-        	pg.markDirty(true, tid);
-        	list.add(pg);
+        HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
+        pg.deleteTuple(t);
+        pg.markDirty(true, tid);
+        try {
+        	freeSpace.update(pid.pageNumber(), true);
+        } catch (IOException e) {
+        	throw new DbException("could not update the free-space map: " + e.getMessage());
         }
+        list.add(pg);
         return list;
     }
 
+    /**
+     * @return a TupleDesc of the given fields of td, in that order
+     */
+    static TupleDesc project(TupleDesc td, int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            types[k] = td.getFieldType(columns[k]);
+            names[k] = td.getFieldName(columns[k]);
+        }
+        return new TupleDesc(types, names);
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-    	DbFileIterator dbItr = new HeapFileIterator(tid);
+    	DbFileIterator dbItr = new HeapFileIterator(tid, Collections.<Predicate>emptyList(), null);
         return dbItr;
     }
+
+    /**
+     * An iterator over the tuples that pass all of predicates.  They are
+     * tested on the page bytes, and only the tuples that pass are decoded.
+     */
+    DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+    	return new HeapFileIterator(tid, predicates, null);
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, List)}, but the tuples returned
+     * hold only the given fields, in that order, and the other fields are
+     * never decoded.
+     *
+     * @param columns indexes of fields of this file, or null for all of them
+     */
+    DbFileIterator iterator(TransactionId tid, List<Predicate> predicates, int[] columns) {
+    	return new HeapFileIterator(tid, predicates, columns);
+    }
     
     class HeapFileIterator implements DbFileIterator {
     	
@@ -191,14 +464,26 @@ public class HeapFile implements DbFile {
     	private Tuple next = null;
     	private TransactionId tid;
     	private Iterable<Tuple> tuples = null;
+    	private ReadAhead readAhead;
+    	private final List<Predicate> predicates;
+    	private final int[] columns;
+    	private final TupleDesc projected;
     	
-    	public HeapFileIterator(TransactionId tid) {
+    	public HeapFileIterator(TransactionId tid, List<Predicate> predicates, int[] columns) {
 			this.tid = tid;
+			this.predicates = predicates;
+			this.columns = columns;
+			this.projected = columns == null ? null : project(td, columns);
     	}
 
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
 			 pgNo = 0;
+			 if (numPages() >= Database.getBufferPool().getLockEscalationThreshold()) {
+				 // one table lock instead of a page lock per page
+				 Database.getBufferPool().lockTable(tid, getId(), Permissions.READ_ONLY);
+			 }
+			 readAhead = readsAhead() ? new ReadAhead(HeapFile.this) : null;
              tuples = getTupsNextPage(pgNo);
              tupItr = tuples.iterator();
              //if (tupItr.hasNext()) {
@@ -212,28 +497,20 @@ public class HeapFile implements DbFile {
 			if(tupItr == null){
 		         return false;
 			}
-				 
-		    if(tupItr.hasNext()){
-		         next = tupItr.next();
-		         return true;
-		    } 
-		    
-		    else if (!tupItr.hasNext() && pgNo < numPages()-1){
-		          HeapPageId hpid = new HeapPageId(getId(),pgNo);
-		          Database.getBufferPool().releasePage(tid, hpid);
-		          pgNo += 1;
-		          tuples = getTupsNextPage(pgNo);
-		          tupItr = tuples.iterator();
-		          if (tupItr.hasNext()) {
-		               next = tupItr.next();
-		               return true;
-		          }
-		          else {
-		               return false;
-		          }
-		     }
-		    
-		     else {return false;}
+			// pages with no tuples (or none passing the pushed-down
+			// predicates) are skipped, not taken for the end of the file
+			while (!tupItr.hasNext()) {
+				if (pgNo >= numPages()-1) {
+					return false;
+				}
+				HeapPageId hpid = new HeapPageId(getId(),pgNo);
+				Database.getBufferPool().releasePage(tid, hpid);
+				pgNo += 1;
+				tuples = getTupsNextPage(pgNo);
+				tupItr = tuples.iterator();
+			}
+			next = tupItr.next();
+			return true;
 		}
 
 		@Override
@@ -253,19 +530,30 @@ public class HeapFile implements DbFile {
 		
 		
 		private List<Tuple> getTupsNextPage(int pgNo) throws TransactionAbortedException, DbException {
+			if (readAhead != null) {
+				readAhead.pageRequested(pgNo);
+			}
 			HeapPageId hpId = new HeapPageId(getId(), pgNo);
 			Page page = Database.getBufferPool().getPage(tid, hpId, Permissions.READ_ONLY);
 			List<Tuple> tups = new ArrayList<Tuple>();
 			HeapPage hpage = (HeapPage)page;
-			//System.out.println("num of empty slots: " + hpage.getNumEmptySlots());
-			Iterator<Tuple> Itr = hpage.iterator();
-			while(Itr.hasNext()){ 		//this says there is no tuples on new page...but there are 3 pages and we only go on pg0
-				tups.add(Itr.next());
+			for (int slot : hpage.usedSlots()) {
+				if (passes(hpage, slot)) {
+					tups.add(columns == null ? hpage.getTuple(slot) : hpage.getTuple(slot, columns, projected));
+				}
 			}
-			//System.out.println(tups);
 			return tups;
 		}
 
+		private boolean passes(HeapPage page, int slot) {
+			for (Predicate p : predicates) {
+				if (!p.filter(page, slot)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
 		@Override
 		public void rewind() throws DbException, TransactionAbortedException {
 			close();
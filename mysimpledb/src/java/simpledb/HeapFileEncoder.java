@@ -107,6 +107,8 @@ public class HeapFileEncoder {
         int nheaderbits = nheaderbytes * 8;
 
         BufferedReader br = new BufferedReader(new FileReader(inFile));
+        // a new table; LSNs and free space of a previous one do not apply
+        HeapFile.deleteSidecars(outFile);
         FileOutputStream os = new FileOutputStream(outFile);
 
         // our numbers probably won't be much larger than 1024 digits
@@ -8,6 +8,23 @@ import simpledb.TupleDesc.TDItem;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p/>
+ * The page is kept as its byte image.  Tuples are decoded lazily: a Tuple
+ * is built for a slot only when somebody asks for it, and
+ * {@link #getField} and {@link Predicate#filter(HeapPage, int)} read single
+ * fields straight from the bytes, so a scan that filters out most tuples
+ * never builds them.  Inserts, deletes and log records patch the image in
+ * place, so getPageData returns it without encoding anything.  The image
+ * is copied on write: after it has been handed out by getPageData or
+ * shared with a before image, the next change copies it first.
+ * <p/>
+ * Changing a Tuple returned by the page does not change the page's bytes;
+ * use deleteTuple and insertTuple.
+ * <p/>
+ * The layout of the bytes is kept behind slotOffset, slotLength,
+ * fieldOffset and readSlotBytes/writeSlotBytes, so that
+ * {@link SlottedHeapPage} can store variable-length records, and
+ * {@link PaxHeapPage} columns, in the same kind of page.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,12 +33,24 @@ public class HeapPage implements Page, Iterable<Tuple> {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    // decoded tuples; null for slots not decoded yet
     final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
+    // the header and slots of this page
+    byte[] data;
+    // true if data may be referenced elsewhere, and must be copied before
+    // it is changed
+    private boolean shared;
+    // slots changed since the before image was set
+    final BitSet dirtySlots = new BitSet();
+    // offset of each field in a fixed-size tuple
+    final int[] fieldOffsets;
     
     private TransactionId tid_dirty;
     private boolean dirty;
+    // LSN of the last log record applied to this page; see HeapFile#readPage
+    private volatile long lsn;
 
     byte[] oldData;
     private final Byte oldDataLock = new Byte((byte) 0);
@@ -39,6 +68,10 @@ public class HeapPage implements Page, Iterable<Tuple> {
      * ceiling(no. tuple slots / 8)
      * <p/>
      *
+     * <p/>
+     * The page shares data rather than copying it, so the caller must not
+     * change it afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -47,26 +80,156 @@ public class HeapPage implements Page, Iterable<Tuple> {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
+        this.headerSize = getHeaderSize();
+        this.data = data;
+        this.shared = true;
         tuples = new Tuple[numSlots];
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
+        oldData = data;
+    }
 
+    /**
+     * @return the offset in data of used slot i
+     */
+    int slotOffset(int i) {
+        return headerSize + i * td.getSize();
+    }
+
+    /**
+     * @return the number of bytes of the tuple in used slot i
+     */
+    int slotLength(int i) {
+        return td.getSize();
+    }
+
+    /**
+     * @return the offset in data of field j of the tuple in used slot i
+     */
+    int fieldOffset(int i, int j) {
+        return slotOffset(i) + fieldOffsets[j];
+    }
+
+    /**
+     * Make data private to this page, so that it can be changed.
+     */
+    void own() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Encode t into slot i of data.
+     */
+    void writeSlot(int i, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
         }
-        dis.close();
+        writeSlotBytes(i, baos.toByteArray());
+    }
+
+    /**
+     * Store the serialized tuple b in slot i of data.
+     */
+    void writeSlotBytes(int i, byte[] b) {
+        System.arraycopy(b, 0, data, slotOffset(i), td.getSize());
+    }
+
+    /**
+     * @return the serialized tuple in used slot i
+     */
+    byte[] readSlotBytes(int i) {
+        int off = slotOffset(i);
+        return Arrays.copyOfRange(data, off, off + slotLength(i));
+    }
+
+    /**
+     * @return the tuple in used slot i, decoding it if it was not yet
+     */
+    synchronized Tuple getTuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = readTuple(i);
+            tuples[i] = t;
+        }
+        return t;
+    }
 
-        System.out.println("Made a new instance of a page");
-        System.out.println(Arrays.toString(data));
-        setBeforeImage();
+    /**
+     * Decode the tuple in used slot i.
+     */
+    Tuple readTuple(int i) {
+        return readNextTuple(new DataInputStream(new ByteArrayInputStream(data, slotOffset(i), slotLength(i))), i);
+    }
+
+    /**
+     * Decode the tuple in used slot i with getField, for layouts that do
+     * not store a tuple as it is serialized.
+     */
+    Tuple readFieldByField(int i) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, i));
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, getField(i, j));
+        }
+        return t;
+    }
+
+    /**
+     * @return a tuple of the given fields of the tuple in used slot i,
+     * described by projected.  The other fields are not decoded, and the
+     * tuple is not cached.
+     */
+    Tuple getTuple(int i, int[] columns, TupleDesc projected) {
+        Tuple cached;
+        synchronized (this) {
+            cached = tuples[i];
+        }
+        Tuple t = new Tuple(projected);
+        t.setRecordId(new RecordId(pid, i));
+        for (int k = 0; k < columns.length; k++) {
+            t.setField(k, cached != null ? cached.getField(columns[k]) : getField(i, columns[k]));
+        }
+        return t;
+    }
+
+    /**
+     * @return field j of the tuple in used slot i, without decoding the
+     * rest of the tuple
+     */
+    Field getField(int i, int j) {
+        Type type = td.getFieldType(j);
+        if (type == Type.INT_TYPE) {
+            return new IntField(getInt(i, j));
+        }
+        try {
+            return type.parse(new DataInputStream(new ByteArrayInputStream(data,
+                    fieldOffset(i, j), type.getLen())));
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * @return int field j of the tuple in used slot i, read in place
+     */
+    int getInt(int i, int j) {
+        byte[] data = this.data;
+        int off = fieldOffset(i, j);
+        return (data[off] & 0xff) << 24 | (data[off + 1] & 0xff) << 16
+                | (data[off + 2] & 0xff) << 8 | (data[off + 3] & 0xff);
     }
 
     /**
@@ -74,7 +237,7 @@ public class HeapPage implements Page, Iterable<Tuple> {
      *
      * @return the number of tuples on this page
      */
-    private int getNumTuples() {
+    int getNumTuples() {
         double numTups = Math.floor(((BufferPool.PAGE_SIZE)*8) / (td.getSize()* 8 + 1));
         return (int) numTups;
 
@@ -85,7 +248,7 @@ public class HeapPage implements Page, Iterable<Tuple> {
      *
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
-    private int getHeaderSize() {
+    int getHeaderSize() {
     	double headSize = Math.ceil((double)this.getNumTuples()/8);
     	//System.out.println("HEADSIZE = " + headSize);
     	return (int) headSize;
@@ -102,8 +265,7 @@ public class HeapPage implements Page, Iterable<Tuple> {
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
-            System.out.println("getting before image " + oldDataRef);
-            return new HeapPage(pid, oldDataRef);
+            return newPage(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -112,10 +274,73 @@ public class HeapPage implements Page, Iterable<Tuple> {
         return null;
     }
 
+    /**
+     * @return a page of the same kind as this one, with the given data
+     */
+    HeapPage newPage(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = getPageData();
+        }
+        synchronized (this) {
+            dirtySlots.clear();
+        }
+    }
+
+    /**
+     * @return the slots changed since the before image was set, in order
+     */
+    synchronized int[] dirtySlots() {
+        int[] slots = new int[dirtySlots.cardinality()];
+        int j = 0;
+        for (int i = dirtySlots.nextSetBit(0); i >= 0; i = dirtySlots.nextSetBit(i + 1)) {
+            slots[j++] = i;
         }
+        return slots;
+    }
+
+    /**
+     * @return the LSN of the last log record applied to this page, or 0
+     */
+    long getLsn() {
+        return lsn;
+    }
+
+    void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * @return the serialized tuple in slot i, or null if the slot is empty
+     */
+    synchronized byte[] getSlotData(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        return readSlotBytes(i);
+    }
+
+    /**
+     * Replace slot i with a serialized tuple, as returned by getSlotData,
+     * or empty it if data is null.  Used to apply log records.
+     */
+    synchronized void setSlotData(int i, byte[] slotData) {
+        own();
+        tuples[i] = null;
+        dirtySlots.set(i);
+        if (slotData == null) {
+            if (isSlotUsed(i)) {
+                markSlotUsed(i, false);
+            }
+            // empty slots are zero
+            writeSlotBytes(i, new byte[td.getSize()]);
+            return;
+        }
+        markSlotUsed(i, true);
+        writeSlotBytes(i, slotData);
     }
 
     /**
@@ -166,69 +391,16 @@ public class HeapPage implements Page, Iterable<Tuple> {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p/>
+     * The array is this page's own image, not a copy; the caller must not
+     * change it.
      *
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    public synchronized byte[] getPageData() {
+        shared = true;
+        return data;
     }
 
     /**
@@ -253,7 +425,7 @@ public class HeapPage implements Page, Iterable<Tuple> {
      * @throws DbException if this tuple is not on this page, or tuple slot is
      *                     already empty.
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         if (this.pid != t.getRecordId().getPageId()) {
         	throw new DbException("page IDs do not match");
         }
@@ -265,7 +437,7 @@ public class HeapPage implements Page, Iterable<Tuple> {
         	return;
         }
         else {
-        	markSlotUsed(tupleNo, false);
+        	setSlotData(tupleNo, null);
         }
     }
 
@@ -277,7 +449,7 @@ public class HeapPage implements Page, Iterable<Tuple> {
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *                     is mismatch.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         if (getNumEmptySlots()==0){
         	throw new DbException("table is full");
         }
@@ -292,12 +464,22 @@ public class HeapPage implements Page, Iterable<Tuple> {
         if (empty_slot==-1) {
         	throw new DbException("an empty slot was not found.");
         }
-        tuples[empty_slot] = t;
+        own();
+        writeSlot(empty_slot, t);
         markSlotUsed(empty_slot, true);
+        dirtySlots.set(empty_slot);
+        tuples[empty_slot] = t;
         RecordId rid = new RecordId(this.pid,empty_slot);
         t.setRecordId(rid);
     }
 
+    /**
+     * @return true if t fits on this page
+     */
+    boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -330,9 +512,9 @@ public class HeapPage implements Page, Iterable<Tuple> {
     public int getNumEmptySlots() {
         int i;
         int validBit = 0;
-        int len = header.length;
+        int len = headerSize;
         for (i=0; i<len; i++) {
-        	byte val = header[i];
+        	byte val = data[i];
         	for (int k=0; k<8; k++) {
         		if ((val & 1) == 1) { //checking lower bit
         			validBit++;
@@ -349,7 +531,7 @@ public class HeapPage implements Page, Iterable<Tuple> {
     public boolean isSlotUsed(int i) {
         int byteNum = i/8;
         int bitNum = i%8;
-        int val = header[byteNum];
+        int val = data[byteNum];
         boolean flag = false;
         val>>=bitNum;
         //System.out.println(val);
@@ -367,14 +549,14 @@ public class HeapPage implements Page, Iterable<Tuple> {
     private void markSlotUsed(int i, boolean value) {
         int header_byte = i/8;
         int offset = i%8;
-        byte b = header[header_byte];
+        byte b = data[header_byte];
         if (value==false) { //mark slot with 0
         	b = (byte) (b ^ (1<<offset));
-        	header[header_byte] = b;
+        	data[header_byte] = b;
         }
         else { // mark slot with 1
         	b = (byte) (b | (1<<offset));
-        	header[header_byte] = b;
+        	data[header_byte] = b;
         }
     }
 
@@ -383,18 +565,40 @@ public class HeapPage implements Page, Iterable<Tuple> {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-    	int size = this.getNumTuples() - this.getNumEmptySlots();
-    	Tuple[] tupAr = new Tuple[size]; 
-    	int i;
+    	final int[] used = usedSlots();
+    	return new Iterator<Tuple>() {
+    		private int next = 0;
+
+    		public boolean hasNext() {
+    			return next < used.length;
+    		}
+
+    		public Tuple next() {
+    			if (!hasNext()) {
+    				throw new NoSuchElementException();
+    			}
+    			return getTuple(used[next++]);
+    		}
+
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+    	};
+    }
+
+    /**
+     * @return the used slots of this page, in order.  Tuples are decoded
+     * only by {@link #getTuple}.
+     */
+    int[] usedSlots() {
+    	int[] used = new int[numSlots - getNumEmptySlots()];
     	int j = 0;
-    	for (i=0;i<this.getNumTuples();i++) {
-    		if (this.isSlotUsed(i)) {
-    			tupAr[j] = tuples[i];
-    			j++;
+    	for (int i = 0; i < numSlots; i++) {
+    		if (isSlotUsed(i)) {
+    			used[j++] = i;
     		}
     	}
-    	Iterator<Tuple> itr = Arrays.asList(tupAr).iterator();
-    	return itr;
+    	return used;
     }
 }
 
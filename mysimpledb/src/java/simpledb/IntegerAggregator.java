@@ -1,20 +1,66 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p/>
+ * Groups are numbered in order of first appearance and their running
+ * aggregates are kept in primitive arrays indexed by group number.  INT_TYPE
+ * group values are found through an open-addressing table of ints; other
+ * group types through a HashMap keyed by the group Field itself.
+ * <p/>
+ * At most maxGroups groups are kept in memory.  Once that many exist, tuples
+ * of any other group are hash-partitioned into {@link SpillFile}s, and each
+ * partition is aggregated on its own, under the same budget, while the
+ * results are iterated.  A partition's own spill files are deleted once the
+ * iterator moves past it or is rewound, and closing the iterator ends the
+ * aggregation: every group is dropped and every spill file deleted.
+ * <p/>
+ * Sums are kept as longs; a SUM that does not fit in an IntField fails with
+ * a DbException rather than wrapping around.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Default number of groups aggregated in memory.
+     */
+    public static final int DEFAULT_MAX_GROUPS = 100000;
+
+    static final int NUM_PARTITIONS = 16;
+
+    /**
+     * Partitions this many levels deep are aggregated in memory, however
+     * many groups they hold.
+     */
+    static final int MAX_PARTITION_DEPTH = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
     private Op what;
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
-    // a map of groupVal -> AggregateFields
-    private HashMap<String, AggregateFields> groups;
+    private final int maxGroups;
+    private final int depth;
+
+    // running aggregates, indexed by group number
+    private int numGroups;
+    private int[] min, max, count, sumCount;
+    private long[] sum;
+
+    // group values: intKeys for INT_TYPE groups, fieldKeys otherwise
+    private int[] intKeys;
+    private Field[] fieldKeys;
+    // linear probing table of group number + 1, 0 marking an empty slot
+    private int[] intTable;
+    private HashMap<Field, Integer> fieldTable;
+
+    // tuples of groups that did not fit, by partition
+    private transient ArrayList<ArrayList<SpillFile>> partitions;
 
     /**
      * Aggregate constructor
@@ -28,11 +74,36 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @param maxGroups the most groups to aggregate in memory at once
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups) {
+        this(gbfield, gbfieldtype, afield, what, maxGroups, 0);
+    }
+
+    private IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups, int depth) {
         this.what = what;
         this.gbfield = gbfield;
         this.afield = afield;
         this.gbfieldtype = gbfieldtype;
-        this.groups = new HashMap<String, AggregateFields>();
+        this.maxGroups = Math.max(1, maxGroups);
+        this.depth = depth;
+
+        min = new int[INITIAL_CAPACITY];
+        max = new int[INITIAL_CAPACITY];
+        count = new int[INITIAL_CAPACITY];
+        sumCount = new int[INITIAL_CAPACITY];
+        sum = new long[INITIAL_CAPACITY];
+        if (gbfieldtype == Type.INT_TYPE) {
+            intKeys = new int[INITIAL_CAPACITY];
+            intTable = new int[2 * INITIAL_CAPACITY];
+        } else {
+            fieldKeys = new Field[INITIAL_CAPACITY];
+            fieldTable = new HashMap<Field, Integer>();
+        }
     }
 
     /**
@@ -42,24 +113,156 @@ public class IntegerAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
-        if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+        int g = findGroup(tup);
+        if (g < 0) {
+            spill(tup);
+            return;
         }
-        AggregateFields agg = groups.get(groupVal);
-        if (agg == null)
-            agg = new AggregateFields(groupVal);
 
         int x = ((IntField) tup.getField(afield)).getValue();
 
-        agg.count++;
-        agg.sum += x;
-        agg.min = (x < agg.min ? x : agg.min);
-        agg.max = (x > agg.max ? x : agg.max);
+        count[g]++;
+        sum[g] += x;
+        min[g] = (x < min[g] ? x : min[g]);
+        max[g] = (x > max[g] ? x : max[g]);
         if (what == Op.SC_AVG)
-            agg.sumCount += ((IntField) tup.getField(afield + 1)).getValue();
+            sumCount[g] += ((IntField) tup.getField(afield + 1)).getValue();
+    }
 
-        groups.put(groupVal, agg);
+    /**
+     * @return the group number of tup's group, creating the group if there
+     * is room for it, or -1 if the group is not in memory and cannot be added
+     */
+    private int findGroup(Tuple tup) {
+        if (gbfield == NO_GROUPING) {
+            return numGroups == 0 ? newGroup() : 0;
+        }
+        if (gbfieldtype == Type.INT_TYPE) {
+            int key = ((IntField) tup.getField(gbfield)).getValue();
+            int mask = intTable.length - 1;
+            int i = slotOf(key, mask);
+            while (intTable[i] != 0) {
+                if (intKeys[intTable[i] - 1] == key) {
+                    return intTable[i] - 1;
+                }
+                i = (i + 1) & mask;
+            }
+            if (isFull()) {
+                return -1;
+            }
+            int g = newGroup();
+            intKeys[g] = key;
+            intTable[i] = g + 1;
+            if (2 * numGroups > intTable.length) {
+                rehash();
+            }
+            return g;
+        }
+        Field key = tup.getField(gbfield);
+        Integer g = fieldTable.get(key);
+        if (g != null) {
+            return g;
+        }
+        if (isFull()) {
+            return -1;
+        }
+        int ng = newGroup();
+        fieldKeys[ng] = key;
+        fieldTable.put(key, ng);
+        return ng;
+    }
+
+    private boolean isFull() {
+        return numGroups >= maxGroups && depth < MAX_PARTITION_DEPTH;
+    }
+
+    private static int slotOf(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash() {
+        int[] table = new int[2 * intTable.length];
+        int mask = table.length - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int i = slotOf(intKeys[g], mask);
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = g + 1;
+        }
+        intTable = table;
+    }
+
+    private int newGroup() {
+        if (numGroups == count.length) {
+            int n = 2 * numGroups;
+            min = Arrays.copyOf(min, n);
+            max = Arrays.copyOf(max, n);
+            count = Arrays.copyOf(count, n);
+            sumCount = Arrays.copyOf(sumCount, n);
+            sum = Arrays.copyOf(sum, n);
+            if (intKeys != null) {
+                intKeys = Arrays.copyOf(intKeys, n);
+            } else {
+                fieldKeys = Arrays.copyOf(fieldKeys, n);
+            }
+        }
+        int g = numGroups++;
+        min[g] = Integer.MAX_VALUE;
+        max[g] = Integer.MIN_VALUE;
+        // the arrays may hold a group dropped by clear()
+        count[g] = 0;
+        sumCount[g] = 0;
+        sum[g] = 0;
+        return g;
+    }
+
+    /**
+     * Drop every group and delete the spill files, leaving the aggregator
+     * empty.
+     */
+    private void clear() {
+        numGroups = 0;
+        if (intTable != null) {
+            Arrays.fill(intTable, 0);
+        } else {
+            fieldTable.clear();
+            Arrays.fill(fieldKeys, null);
+        }
+        if (partitions != null) {
+            for (ArrayList<SpillFile> files : partitions) {
+                for (SpillFile f : files) {
+                    f.delete();
+                }
+            }
+            partitions = null;
+        }
+    }
+
+    /**
+     * Append tup to the spill file of its partition.  A partition whose file
+     * has already been read by an iterator gets a new file.
+     */
+    private void spill(Tuple tup) {
+        if (partitions == null) {
+            partitions = new ArrayList<ArrayList<SpillFile>>(NUM_PARTITIONS);
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                partitions.add(new ArrayList<SpillFile>());
+            }
+        }
+        int p = SpillFile.partitionOf(tup.getField(gbfield).hashCode(), depth, NUM_PARTITIONS);
+        ArrayList<SpillFile> files = partitions.get(p);
+        try {
+            SpillFile f = files.isEmpty() ? null : files.get(files.size() - 1);
+            if (f == null || f.isSealed()) {
+                f = new SpillFile(tup.getTupleDesc());
+                files.add(f);
+            }
+            f.add(tup);
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate partition: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -71,8 +274,6 @@ public class IntegerAggregator implements Aggregator {
      * the constructor.
      */
     public DbIterator iterator() {
-        LinkedList<Tuple> result = new LinkedList<Tuple>();
-        int aggField = 1;
         TupleDesc td;
 
         if (gbfield == NO_GROUPING) {
@@ -80,70 +281,161 @@ public class IntegerAggregator implements Aggregator {
                 td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
             else
                 td = new TupleDesc(new Type[]{Type.INT_TYPE});
-            aggField = 0;
         } else {
             if (what == Op.SUM_COUNT)
                 td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE, Type.INT_TYPE});
             else
                 td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
         }
+        return new ResultIterator(td);
+    }
+
+    private Tuple resultTuple(TupleDesc td, int g) throws DbException {
+        Tuple tup = new Tuple(td);
+        int aggField = 1;
+        if (gbfield == NO_GROUPING) {
+            aggField = 0;
+        } else if (intKeys != null) {
+            tup.setField(0, new IntField(intKeys[g]));
+        } else {
+            tup.setField(0, fieldKeys[g]);
+        }
+        switch (what) {
+            case MIN:
+                tup.setField(aggField, new IntField(min[g]));
+                break;
+            case MAX:
+                tup.setField(aggField, new IntField(max[g]));
+                break;
+            case SUM:
+                tup.setField(aggField, new IntField(toInt(sum[g])));
+                break;
+            case COUNT:
+                tup.setField(aggField, new IntField(count[g]));
+                break;
+            case AVG:
+                tup.setField(aggField, new IntField((int) (sum[g] / count[g])));
+                break;
+            case SUM_COUNT:
+                tup.setField(aggField, new IntField(toInt(sum[g])));
+                tup.setField(aggField + 1, new IntField(count[g]));
+                break;
+            case SC_AVG:
+                tup.setField(aggField, new IntField((int) (sum[g] / sumCount[g])));
+                break;
+        }
+        return tup;
+    }
+
+    private static int toInt(long sum) throws DbException {
+        if (sum != (int) sum) {
+            throw new DbException("sum " + sum + " does not fit in an integer field");
+        }
+        return (int) sum;
+    }
+
+    /**
+     * Returns the groups held in memory, then aggregates the spilled
+     * partitions one at a time and returns their groups, so only one
+     * partition's groups are in memory besides this aggregator's own.
+     */
+    private class ResultIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private int nextGroup;
+        private int nextPartition;
+        private DbIterator partitionResults;
+
+        ResultIterator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            nextGroup = 0;
+            nextPartition = 0;
+            partitionResults = null;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            closePartition();
+            clear();
+            // nothing more until reopened
+            nextGroup = Integer.MAX_VALUE;
+            nextPartition = NUM_PARTITIONS;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            // keeps this aggregator's groups and spill files, which are
+            // aggregated again
+            super.close();
+            closePartition();
+            open();
+        }
 
-        // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
-            AggregateFields agg = groups.get(groupVal);
-            Tuple tup = new Tuple(td);
+        /**
+         * Close the results of the current partition, which deletes the
+         * spill files of its aggregator.
+         */
+        private void closePartition() {
+            if (partitionResults != null) {
+                partitionResults.close();
+                partitionResults = null;
+            }
+        }
 
-            if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (nextGroup < numGroups) {
+                return resultTuple(td, nextGroup++);
             }
-            switch (what) {
-                case MIN:
-                    tup.setField(aggField, new IntField(agg.min));
-                    break;
-                case MAX:
-                    tup.setField(aggField, new IntField(agg.max));
-                    break;
-                case SUM:
-                    tup.setField(aggField, new IntField(agg.sum));
-                    break;
-                case COUNT:
-                    tup.setField(aggField, new IntField(agg.count));
-                    break;
-                case AVG:
-                    tup.setField(aggField, new IntField(agg.sum / agg.count));
-                    break;
-                case SUM_COUNT:
-                    tup.setField(aggField, new IntField(agg.sum));
-                    tup.setField(aggField + 1, new IntField(agg.count));
-                    break;
-                case SC_AVG:
-                    tup.setField(aggField, new IntField(agg.sum / agg.sumCount));
-                    break;
+            while (true) {
+                if (partitionResults != null && partitionResults.hasNext()) {
+                    return partitionResults.next();
+                }
+                closePartition();
+                if (partitions == null || nextPartition == NUM_PARTITIONS) {
+                    return null;
+                }
+                partitionResults = aggregatePartition(partitions.get(nextPartition++));
             }
+        }
 
-            result.add(tup);
+        private DbIterator aggregatePartition(ArrayList<SpillFile> files)
+                throws DbException, TransactionAbortedException {
+            if (files.isEmpty()) {
+                return null;
+            }
+            IntegerAggregator sub = new IntegerAggregator(gbfield, gbfieldtype, afield, what,
+                    maxGroups, depth + 1);
+            try {
+                for (SpillFile f : files) {
+                    SpillFile.Reader r = f.reader();
+                    for (Tuple t = r.next(); t != null; t = r.next()) {
+                        sub.mergeTupleIntoGroup(t);
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read aggregate partition: " + e.getMessage());
+            }
+            DbIterator it = sub.iterator();
+            it.open();
+            return it;
         }
 
-        DbIterator retVal = null;
-        retVal = new TupleIterator(td, Collections.unmodifiableList(result));
-        return retVal;
-    }
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
 
-    /**
-     * A helper struct to store accumulated aggregate values.
-     */
-    private class AggregateFields {
-        public String groupVal;
-        public int min, max, sum, count, sumCount;
-
-        public AggregateFields(String groupVal) {
-            this.groupVal = groupVal;
-            min = Integer.MAX_VALUE;
-            max = Integer.MIN_VALUE;
-            sum = count = sumCount = 0;
+        @Override
+        public void setChildren(DbIterator[] children) {
         }
     }
 
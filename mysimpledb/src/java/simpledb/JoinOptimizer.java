@@ -11,6 +11,18 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+
+    /**
+     * The physical join operators the optimizer can choose between.
+     */
+    public enum JoinAlgorithm {
+        NESTED_LOOPS, BLOCK_NESTED_LOOPS, SORT_MERGE, HASH
+    }
+
+    // width assumed for an outer input whose schema is not known
+    private static final TupleDesc DEFAULT_OUTER_TD =
+            new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -63,20 +75,24 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (DbIterator) ct
-                        .newInstance(new Object[]{p, plan1, plan2});
-            } catch (Exception e) {
+        JoinAlgorithm algorithm = lj.algorithm;
+        if (algorithm == null) {
+            // not costed by orderJoins
+            algorithm = lj.p == Predicate.Op.EQUALS ? JoinAlgorithm.HASH
+                    : JoinAlgorithm.BLOCK_NESTED_LOOPS;
+        }
+        switch (algorithm) {
+            case HASH:
+                j = new HashEquiJoin(p, plan1, plan2);
+                break;
+            case SORT_MERGE:
+                j = new SortMergeJoin(p, plan1, plan2);
+                break;
+            case BLOCK_NESTED_LOOPS:
+                j = new BlockNestedLoopJoin(p, plan1, plan2);
+                break;
+            default:
                 j = new Join(p, plan1, plan2);
-            }
-        } else {
-            j = new Join(p, plan1, plan2);
         }
 
         return j;
@@ -109,13 +125,72 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
-        } else {
-            
-        	int num_tups_t1 = card1;
-        	return cost1 + num_tups_t1*cost2;
+        }
+        return estimateJoinCost(j, cheapestJoin(j, card1, card2, cost1, cost2),
+                card1, card2, cost1, cost2);
+    }
+
+    /**
+     * @return the join algorithm with the lowest estimated cost for j
+     */
+    public JoinAlgorithm cheapestJoin(LogicalJoinNode j, int card1, int card2,
+                                      double cost1, double cost2) {
+        if (j.p == Predicate.Op.EQUALS) {
+            return JoinAlgorithm.HASH;
+        }
+        JoinAlgorithm best = JoinAlgorithm.NESTED_LOOPS;
+        double bestCost = estimateJoinCost(j, best, card1, card2, cost1, cost2);
+        JoinAlgorithm[] candidates = SortMergeJoin.supports(j.p)
+                ? new JoinAlgorithm[]{JoinAlgorithm.BLOCK_NESTED_LOOPS, JoinAlgorithm.SORT_MERGE}
+                : new JoinAlgorithm[]{JoinAlgorithm.BLOCK_NESTED_LOOPS};
+        for (JoinAlgorithm a : candidates) {
+            double cost = estimateJoinCost(j, a, card1, card2, cost1, cost2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of joining with a particular algorithm.
+     */
+    double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm algorithm, int card1, int card2,
+                            double cost1, double cost2) {
+        switch (algorithm) {
+            case HASH:
+                // scan each input once, hash every tuple once
+                return cost1 + cost2 + card1 + card2;
+            case SORT_MERGE:
+                // scan each input once, sort both, then one merge pass
+                return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1 + card2;
+            case BLOCK_NESTED_LOOPS:
+                // one inner scan per block of outer tuples
+                double blocks = Math.ceil((double) card1 / outerBlockTuples(j));
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            default:
+                // one inner scan per outer tuple
+                return cost1 + card1 * cost2 + (double) card1 * card2;
         }
     }
 
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * @return how many outer tuples BlockNestedLoopJoin buffers per inner
+     * scan, sized by the schema of j's outer table, or by a narrow default
+     * schema if the outer table is not known
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        Integer tableId = p == null ? null : p.getTableId(j.t1Alias);
+        TupleDesc td = tableId == null ? DEFAULT_OUTER_TD
+                : Database.getCatalog().getTupleDesc(tableId);
+        return BlockNestedLoopJoin.blockTuples(td, BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -218,6 +293,10 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
+    	if (joins.isEmpty()) {
+    		// single-table query: nothing to order
+    		return joins;
+    	}
     	PlanCache pc = new PlanCache();
     	int subsetSize = 1;
     	for (subsetSize=1; subsetSize<=joins.size();subsetSize++) {
@@ -369,11 +448,13 @@ public class JoinOptimizer {
 
         // case where prevbest is left
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        JoinAlgorithm alg1 = cheapestJoin(j, t1card, t2card, t1cost, t2cost);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
         if (cost2 < cost1) {
             boolean tmp;
+            alg1 = cheapestJoin(j2, t2card, t1card, t2cost, t1cost);
             j = j2;
             cost1 = cost2;
             tmp = rightPkey;
@@ -389,6 +470,10 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            // j may be shared with other candidate plans, so tag a copy
+            j = j.withAlgorithm(alg1);
+        }
         cc.plan.addElement(j); // prevbest is left -- add new join to end
         return cc;
     }
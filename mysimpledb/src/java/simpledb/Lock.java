@@ -1,63 +1,239 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * The lock on one lockable object: the transactions that hold it and in
+ * which {@link Mode}, and a FIFO queue of the requests waiting for it.
+ * The object is a table (its Integer id), a PageId, or a RecordId.
+ * <p/>
+ * A Lock is only touched while holding the monitor of its LockManager.
+ */
 public class Lock {
-	
-	private PageId id;
-	private ArrayList<TransactionId> lockedTxns;
-	private String type; //should probably makes these constants?
-	private Queue<PageId> txnRequests;
-	
-	public Lock(PageId id, String type) {
+
+	/**
+	 * Lock modes for multi-granularity locking.  The intention modes IS and
+	 * IX are taken on a table before locking its pages (or on a page before
+	 * locking its tuples) in S or X; SIX is S plus IX.
+	 */
+	public enum Mode {
+		IS, IX, S, SIX, X;
+
+		//                                      IS     IX     S      SIX    X
+		private static final boolean[][] COMPATIBLE = {
+				/* IS  */ {true,  true,  true,  true,  false},
+				/* IX  */ {true,  true,  false, false, false},
+				/* S   */ {true,  false, true,  false, false},
+				/* SIX */ {true,  false, false, false, false},
+				/* X   */ {false, false, false, false, false}};
+
+		public boolean isCompatible(Mode other) {
+			return COMPATIBLE[ordinal()][other.ordinal()];
+		}
+
+		/**
+		 * @return true if holding this mode gives every right other gives
+		 */
+		public boolean covers(Mode other) {
+			return combine(other) == this;
+		}
+
+		/**
+		 * @return the weakest mode that gives the rights of both
+		 */
+		public Mode combine(Mode other) {
+			if (this == other) {
+				return this;
+			}
+			if (this == X || other == X) {
+				return X;
+			}
+			if (this == IS) {
+				return other;
+			}
+			if (other == IS) {
+				return this;
+			}
+			// two different modes of IX, S and SIX
+			return SIX;
+		}
+	}
+
+	private Object id;
+	private LinkedHashMap<TransactionId, Mode> holders;
+	private LinkedList<Request> waiters;
+
+	public Lock(Object id) {
 		this.id = id;
-		this.type = type;
-		lockedTxns = new ArrayList<TransactionId>();
-		txnRequests = new LinkedList<PageId>();
+		holders = new LinkedHashMap<TransactionId, Mode>();
+		waiters = new LinkedList<Request>();
 	}
-	
-	public PageId getId() {
+
+	public Object getId() {
 		return id;
 	}
-	
-	public ArrayList<TransactionId> getTransactions() {
-		return lockedTxns;
+
+	public Set<TransactionId> getTransactions() {
+		return holders.keySet();
+	}
+
+	/**
+	 * @return the mode tid holds this lock in, or null
+	 */
+	public Mode getMode(TransactionId tid) {
+		return holders.get(tid);
+	}
+
+	public boolean isHeldBy(TransactionId tid) {
+		return holders.containsKey(tid);
 	}
-	
-	public void addTransaction(TransactionId tid) {
-		if (lockedTxns.indexOf(tid)==-1) { //txn is not already in list
-			this.lockedTxns.add(tid);
+
+	/**
+	 * @return true if nobody holds or waits for this lock
+	 */
+	public boolean isUnused() {
+		return holders.isEmpty() && waiters.isEmpty();
+	}
+
+	/**
+	 * @return true if tid could be given the lock in the requested mode
+	 * right now, ignoring anyone queued
+	 */
+	public boolean isCompatible(TransactionId tid, Mode mode) {
+		for (Map.Entry<TransactionId, Mode> h : holders.entrySet()) {
+			if (!h.getKey().equals(tid) && !mode.isCompatible(h.getValue())) {
+				return false;
+			}
 		}
+		return true;
 	}
-	
-	public String getType() {
-		return type;
+
+	/**
+	 * @return true if a new request may be granted without waiting: it is
+	 * compatible and does not jump ahead of an earlier waiter
+	 */
+	public boolean canGrant(TransactionId tid, Mode mode) {
+		return waiters.isEmpty() && isCompatible(tid, mode);
 	}
-	
-	public void setType(String type) {
-		this.type = type;
+
+	/**
+	 * Give tid the lock in mode, on top of any mode it already holds.
+	 */
+	public void grant(TransactionId tid, Mode mode) {
+		Mode held = holders.get(tid);
+		holders.put(tid, held == null ? mode : held.combine(mode));
 	}
 
-	public Queue<PageId> getRequests() {
-		return txnRequests;
+	public void deleteTransaction(TransactionId tid) {
+		holders.remove(tid);
 	}
-	public void addRequests(PageId pid) {
-		if (txnRequests.contains(pid)) {
-			this.txnRequests.add(pid);
+
+	/**
+	 * Queue a request.  Upgrades by a current holder go ahead of other
+	 * waiters, since they only wait for the other holders to leave.
+	 */
+	public void enqueue(Request r) {
+		if (isHeldBy(r.tid)) {
+			waiters.addFirst(r);
+		} else {
+			waiters.addLast(r);
+		}
+	}
+
+	public void dequeue(Request r) {
+		waiters.remove(r);
+	}
+
+	/**
+	 * Grant the lock to waiters at the head of the queue for as long as
+	 * they are compatible with the holders, so a release wakes exactly the
+	 * requests that can now proceed.
+	 *
+	 * @return the requests granted, in queue order
+	 */
+	public List<Request> grantWaiters() {
+		List<Request> granted = null;
+		while (!waiters.isEmpty()) {
+			Request r = waiters.getFirst();
+			if (!isCompatible(r.tid, r.mode)) {
+				break;
+			}
+			waiters.removeFirst();
+			grant(r.tid, r.mode);
+			if (granted == null) {
+				granted = new ArrayList<Request>();
+			}
+			granted.add(r);
+		}
+		return granted == null ? Collections.<Request>emptyList() : granted;
+	}
+
+	/**
+	 * @return the transactions that request r waits for: holders whose mode
+	 * conflicts with it, and conflicting requests queued ahead of it
+	 */
+	public List<TransactionId> blockersOf(Request r) {
+		ArrayList<TransactionId> blockers = new ArrayList<TransactionId>();
+		for (Map.Entry<TransactionId, Mode> h : holders.entrySet()) {
+			if (!h.getKey().equals(r.tid) && !r.mode.isCompatible(h.getValue())) {
+				blockers.add(h.getKey());
+			}
+		}
+		for (Request ahead : waiters) {
+			if (ahead == r) {
+				break;
+			}
+			if (!r.mode.isCompatible(ahead.mode) && !ahead.tid.equals(r.tid)
+					&& !blockers.contains(ahead.tid)) {
+				blockers.add(ahead.tid);
+			}
+		}
+		return blockers;
+	}
+
+	/**
+	 * @return the queued requests of tid
+	 */
+	public List<Request> requestsOf(TransactionId tid) {
+		ArrayList<Request> mine = new ArrayList<Request>(1);
+		for (Request r : waiters) {
+			if (r.tid.equals(tid)) {
+				mine.add(r);
+			}
+		}
+		return mine;
+	}
+
+	/**
+	 * A transaction's thread parked waiting for a lock.
+	 */
+	static class Request {
+		final TransactionId tid;
+		// the mode to hold once granted, including any mode held already
+		final Mode mode;
+		final Thread thread;
+		volatile boolean granted;
+		volatile boolean aborted;
+
+		Request(TransactionId tid, Mode mode) {
+			this.tid = tid;
+			this.mode = mode;
+			this.thread = Thread.currentThread();
+		}
+
+		void wake() {
+			granted = true;
+			LockSupport.unpark(thread);
+		}
+
+		/**
+		 * Refuse the request; the waiting thread aborts its transaction.
+		 */
+		void abort() {
+			aborted = true;
+			LockSupport.unpark(thread);
 		}
 	}
-	
-    public void deleteTransaction(TransactionId tid) {
-    	if (lockedTxns.indexOf(tid)!=-1) {
-    		this.lockedTxns.remove(tid);
-    	}
-    }
-    public void deleteRequest(PageId pid) {
-    	if (txnRequests.contains(pid)) {
-    		this.txnRequests.remove(pid);
-    	}
-    }
-	
-	
 
 }
@@ -1,200 +1,550 @@
 package simpledb;
 import java.util.*;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Lock Manager manages a collection of pages (objects)
  * We can refer to the lock's object by it's pageId
- *
+ * <p/>
+ * Each page has a {@link Lock} with a FIFO queue of waiting requests.  A
+ * request that cannot be granted parks its thread; whoever releases a lock
+ * grants it to the waiters that can now proceed and unparks exactly those,
+ * so nobody polls.  All bookkeeping is done under this object's monitor,
+ * which is never held while a thread is parked.
+ * <p/>
+ * Deadlocks are handled when a request has to wait, according to the
+ * {@link DeadlockPolicy}.  Transaction age is the order of TransactionIds.
+ * <p/>
+ * Locking is hierarchical: tables (keyed by their Integer id), pages and,
+ * optionally, tuples (keyed by RecordId) are locked in the {@link Lock.Mode}s
+ * of multi-granularity locking, with intention locks on the levels above.
  */
 
 public class LockManager {
+
+	public enum DeadlockPolicy {
+		/**
+		 * Look for a cycle in the waits-for graph through the new waiter and
+		 * abort the youngest transaction on it.  Nobody is aborted unless
+		 * there really is a deadlock.
+		 */
+		DETECT,
+		/**
+		 * An older requester wounds (aborts) younger transactions it waits
+		 * for; a younger requester waits.
+		 */
+		WOUND_WAIT,
+		/**
+		 * An older requester waits; a younger requester that would wait for
+		 * an older transaction dies (aborts) instead.
+		 */
+		WAIT_DIE
+	}
+
+	private DeadlockPolicy policy = DeadlockPolicy.DETECT;
+	// transactions wounded under WOUND_WAIT, to abort at their next request
+	private HashSet<TransactionId> wounded = new HashSet<TransactionId>();
+
+	/**
+	 * Page locks a transaction may hold in one table before they are
+	 * escalated to a single table lock.
+	 */
+	public static final int DEFAULT_ESCALATION_THRESHOLD = 64;
+	private int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
 	// lock table
-	private HashMap<PageId, Lock> lockTable;  //pid to lock
+	private HashMap<Object, Lock> lockTable;  //table id, pid or rid to lock
 	// txn tables
-	private HashMap<TransactionId, ArrayList<PageId>> lockedPages;  //tid to list of pids
-	private HashMap<TransactionId, ArrayList<PageId>> waitingForPages;  //tid to list of pids
-	
-	
-	
+	// hash sets, so that checking, adding and dropping one lock is O(1) and
+	// a transaction's locks are released in time linear in their number
+	private HashMap<TransactionId, HashSet<PageId>> lockedPages;  //tid to pids locked, directly or by a table lock
+	private HashMap<TransactionId, HashSet<Object>> heldLocks;  //tid to everything it holds a Lock on
+	private HashMap<TransactionId, HashSet<Object>> waitingFor;  //tid to everything it waits to lock
+	private HashMap<TransactionId, HashMap<Integer, Integer>> pageLockCounts;  //tid to table id to page locks held
+
+
+
 	public LockManager() {
-		lockTable = new HashMap<PageId, Lock>();
-		lockedPages = new HashMap<TransactionId, ArrayList<PageId>>();
-		waitingForPages = new HashMap<TransactionId, ArrayList<PageId>>();
+		lockTable = new HashMap<Object, Lock>();
+		lockedPages = new HashMap<TransactionId, HashSet<PageId>>();
+		heldLocks = new HashMap<TransactionId, HashSet<Object>>();
+		waitingFor = new HashMap<TransactionId, HashSet<Object>>();
+		pageLockCounts = new HashMap<TransactionId, HashMap<Integer, Integer>>();
 	}
 
 	/**
-	 * Finds out if a lock is available
-	 * @param pid
-	 * @return true if lock is available, false if unavailable
-	 * @throws TransactionAbortedException 
+	 * Acquire a lock on pid for tid, waiting for it if it is held in a
+	 * conflicting mode.  READ_ONLY asks for a shared lock and READ_WRITE for
+	 * an exclusive one; a shared lock held by tid is upgraded.
+	 * <p/>
+	 * The page's table is locked first in the matching intention mode.  If
+	 * tid's table lock already covers the page, no page lock is taken, and
+	 * once tid holds escalationThreshold page locks in the table they are
+	 * traded for a table lock.
+	 *
+	 * @return true once the lock is held
+	 * @throws TransactionAbortedException if tid is chosen to resolve a
+	 * deadlock
 	 */
 	public boolean requestLock(PageId pid, TransactionId tid, Permissions perm) throws TransactionAbortedException {
-        boolean waiting = true;
-        long startTime = System.currentTimeMillis();
-		while (waiting) {
-			if (System.currentTimeMillis() - startTime > 100) {
+		Lock.Mode mode = modeFor(perm);
+		Integer table = pid.getTableId();
+		if (reachedUnder(table, pid, tid, mode)) {
+			return true;
+		}
+		acquire(table, tid, intentionFor(mode));
+		if (reachedUnder(table, pid, tid, mode)) {
+			return true;
+		}
+		acquire(pid, tid, mode);
+		escalate(tid, table);
+		return true;
+	}
+
+	/**
+	 * Lock a whole table in S (READ_ONLY) or X (READ_WRITE) mode, so its
+	 * pages can then be read, or written, without page locks.
+	 *
+	 * @throws TransactionAbortedException if tid is chosen to resolve a
+	 * deadlock
+	 */
+	public void requestTableLock(int tableId, TransactionId tid, Permissions perm) throws TransactionAbortedException {
+		acquire(tableId, tid, modeFor(perm));
+	}
+
+	/**
+	 * Lock a single tuple, after intention locks on its table and page.
+	 * Does nothing if a table or page lock of tid already covers it.
+	 *
+	 * @throws TransactionAbortedException if tid is chosen to resolve a
+	 * deadlock
+	 */
+	public void requestTupleLock(RecordId rid, TransactionId tid, Permissions perm) throws TransactionAbortedException {
+		Lock.Mode mode = modeFor(perm);
+		PageId pid = rid.getPageId();
+		Integer table = pid.getTableId();
+		if (covers(table, tid, mode)) {
+			return;
+		}
+		acquire(table, tid, intentionFor(mode));
+		if (covers(table, tid, mode) || covers(pid, tid, mode)) {
+			return;
+		}
+		acquire(pid, tid, intentionFor(mode));
+		acquire(rid, tid, mode);
+	}
+
+	private static Lock.Mode modeFor(Permissions perm) {
+		return perm == Permissions.READ_WRITE ? Lock.Mode.X : Lock.Mode.S;
+	}
+
+	private static Lock.Mode intentionFor(Lock.Mode mode) {
+		return mode == Lock.Mode.X ? Lock.Mode.IX : Lock.Mode.IS;
+	}
+
+	/**
+	 * @return true if tid holds a lock on obj that gives mode
+	 */
+	private synchronized boolean covers(Object obj, TransactionId tid, Lock.Mode mode) {
+		Lock lock = lockTable.get(obj);
+		Lock.Mode held = lock == null ? null : lock.getMode(tid);
+		return held != null && held.covers(mode);
+	}
+
+	/**
+	 * If tid's lock on table covers pid in mode, record that tid has the
+	 * page.
+	 *
+	 * @return true if no page lock is needed
+	 */
+	private synchronized boolean reachedUnder(Integer table, PageId pid, TransactionId tid, Lock.Mode mode) {
+		if (!covers(table, tid, mode)) {
+			return false;
+		}
+		txnSet(lockedPages, tid).add(pid);
+		return true;
+	}
+
+	/**
+	 * Lock obj for tid in mode, on top of any mode tid already holds on it,
+	 * waiting if need be.
+	 */
+	private void acquire(Object obj, TransactionId tid, Lock.Mode mode) throws TransactionAbortedException {
+		Lock.Request request;
+		synchronized (this) {
+			if (wounded.contains(tid)) {
 				throw new TransactionAbortedException();
 			}
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			Lock lock = lockTable.get(obj);
+			if (lock == null) {
+				lock = new Lock(obj);
+				lockTable.put(obj, lock);
+			}
+			Lock.Mode held = lock.getMode(tid);
+			if (held != null && held.covers(mode)) {
+				return;
+			}
+			Lock.Mode wanted = held == null ? mode : held.combine(mode);
+			if (lock.canGrant(tid, wanted)) {
+				lock.grant(tid, wanted);
+				lockGranted(tid, obj);
+				return;
+			}
+			request = new Lock.Request(tid, wanted);
+			lock.enqueue(request);
+			txnSet(waitingFor, tid).add(obj);
+			if (!mayWait(request, lock)) {
+				cancel(request, obj);
+				throw new TransactionAbortedException();
 			}
-			synchronized(this) {
-
-                // check if lock is available
-    			//if the lock can be shared, this page may acquire the lock
-    			Lock lock = getLockInfo(pid,perm);
-				System.out.println("Txn: "+tid+ " is requesting a " + lock.getType() +" lock on page "+ pid);
-    			if (lock==null) {}
-    			else if (lock.getType().equals("SHARED")) {
-    				//System.out.println("Number of locks on this page is " + lock.getTransactions().size());				
-    				System.out.println("the lock for this page is a shared lock!\n");
-    				if (!lockedPages.containsKey(tid)) {
-    					//update tables to accommodate the new txn
-    					makeNewTxn(tid);
-    				}
-    				lock.addTransaction(tid);
-    				waitedForLock(tid,pid);
-    				lockedPages.get(tid).add(pid);
-    				//System.out.println("SIZEEE????? " + lock.getTransactions().size());
-    				return true;
-    			}
-    			
-    			else if (lock.getType().equals("UPGRADE")) {
-    				if (lock.getTransactions().size() == 1 && lock.getTransactions().get(0)==tid){
-        				System.out.println("Can Upgrade to an Exclusive lock");
-        				lock.setType("EXCLUSIVE");
-        				return true;
-    				}
-    				else {
-    					lock.setType("SHARED");
-    				}
-    			}
-    			
-    			else if (lock.getType().equals("DOWNGRADE")) {
-    				if (lock.getTransactions().get(0)==tid){
-        				System.out.println("Can Downgrade to a Shared lock");
-        				lock.setType("SHARED");
-        				return true;
-    				}
-    				else { //another txn has lock
-    					lock.setType("EXCLUSIVE");
-    				}
-    			}
-    			
-    			//if the lock is exclusive but no one else is holding the lock, this page may acquire the lock
-    			else if (lock.getType().equals("EXCLUSIVE") && isXAvailable(lock,tid) ) {
-    				//System.out.println("Number of locks on this page is " + lock.getTransactions().size());
-    				System.out.println("the lock for this page is exclusive and availabe");
-    				if (!lockedPages.containsKey(tid)) {
-    					//update tables to accommodate the new txn
-    					makeNewTxn(tid);
-    				}
-    				lock.addTransaction(tid);
-    				waitedForLock(tid, pid);
-    				lockedPages.get(tid).add(pid);
-    				return true;
-    			}
-    			// final case: exclusive lock, but another transaction has the lock for this page
-    			else {
-    				System.out.println("Number of locks on this page is " + lock.getTransactions().size());				
-    				System.out.println("the lock for this page is exclusive and taken!");
-    				if (!lockedPages.containsKey(tid)) {
-    					//update tables to accommodate the new txn
-    					makeNewTxn(tid);
-    				}
-    				lock.addRequests(pid);
-    				waitingForPages.get(tid).add(pid);
-    			}
-                try {
-                   Thread.sleep(1);
-                } catch (InterruptedException ignored) { }
-    		}	
 		}
-		return false;
-   }
-		
-	//checks if exclusive lock is availabe
-	private boolean isXAvailable(Lock lock, TransactionId tid) {
-		System.out.println("checking X availability size = " + lock.getTransactions().size());
-		if (lock.getTransactions().isEmpty()) {
-			return true;
+		awaitGrant(request, obj);
+	}
+
+	/**
+	 * Once tid holds escalationThreshold page locks in table, upgrade its
+	 * table lock to S (if it only reads the table) or X and drop the page
+	 * and tuple locks under it.  Escalation never waits: if the table lock
+	 * cannot be had right away, it is tried again at the next page lock.
+	 */
+	private synchronized void escalate(TransactionId tid, Integer table) {
+		HashMap<Integer, Integer> counts = pageLockCounts.get(tid);
+		Integer n = counts == null ? null : counts.get(table);
+		Lock lock = lockTable.get(table);
+		if (n == null || n < escalationThreshold || lock == null || !lock.isHeldBy(tid)) {
+			return;
 		}
-		if (lock.getTransactions().size()==1 && lock.getTransactions().get(0)==tid) {
-			return true;
+		Lock.Mode target = lock.getMode(tid) == Lock.Mode.IS ? Lock.Mode.S : Lock.Mode.X;
+		if (!lock.canGrant(tid, target)) {
+			return;
 		}
+		lock.grant(tid, target);
+		for (Object obj : new ArrayList<Object>(heldLocks.get(tid))) {
+			if (!obj.equals(table) && tableOf(obj) == table) {
+				releaseHeld(tid, lockTable.get(obj));
+			}
+		}
+	}
+
+	private static int tableOf(Object obj) {
+		if (obj instanceof PageId) {
+			return ((PageId) obj).getTableId();
+		}
+		if (obj instanceof RecordId) {
+			return ((RecordId) obj).getPageId().getTableId();
+		}
+		return (Integer) obj;
+	}
+
+	public synchronized void setEscalationThreshold(int pages) {
+		escalationThreshold = pages;
+	}
+
+	public synchronized int getEscalationThreshold() {
+		return escalationThreshold;
+	}
+
+	public synchronized void setDeadlockPolicy(DeadlockPolicy policy) {
+		this.policy = policy;
+	}
+
+	public synchronized DeadlockPolicy getDeadlockPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Apply the deadlock policy to a request that has just been queued,
+	 * aborting other transactions if the policy says so.
+	 *
+	 * @return false if the requester itself must abort instead of waiting
+	 */
+	private boolean mayWait(Lock.Request request, Lock lock) {
+		TransactionId tid = request.tid;
+		switch (policy) {
+			case WAIT_DIE:
+				for (TransactionId b : lock.blockersOf(request)) {
+					if (isOlder(b, tid)) {
+						return false;
+					}
+				}
+				return true;
+			case WOUND_WAIT:
+				for (TransactionId b : lock.blockersOf(request)) {
+					if (isOlder(tid, b)) {
+						wounded.add(b);
+						abortWaits(b);
+					}
+				}
+				return true;
+			default:
+				// every new cycle goes through the new waiter
+				for (List<TransactionId> cycle = findCycle(tid); cycle != null; cycle = findCycle(tid)) {
+					TransactionId victim = tid;
+					for (TransactionId t : cycle) {
+						if (isOlder(victim, t)) {
+							victim = t;
+						}
+					}
+					if (victim.equals(tid)) {
+						return false;
+					}
+					abortWaits(victim);
+				}
+				return true;
+		}
+	}
+
+	private static boolean isOlder(TransactionId a, TransactionId b) {
+		return a.getId() < b.getId();
+	}
+
+	/**
+	 * @return the transactions on a cycle of the waits-for graph from start
+	 * back to itself, or null if start is not deadlocked
+	 */
+	private List<TransactionId> findCycle(TransactionId start) {
+		ArrayList<TransactionId> path = new ArrayList<TransactionId>();
+		return reaches(start, start, path, new HashSet<TransactionId>()) ? path : null;
+	}
+
+	private boolean reaches(TransactionId from, TransactionId target, ArrayList<TransactionId> path,
+			HashSet<TransactionId> visited) {
+		path.add(from);
+		for (TransactionId next : waitsFor(from)) {
+			if (next.equals(target)) {
+				return true;
+			}
+			if (visited.add(next) && reaches(next, target, path, visited)) {
+				return true;
+			}
+		}
+		path.remove(path.size() - 1);
 		return false;
 	}
 
-	private void waitedForLock(TransactionId tid, PageId pid) {
-		for (PageId pageid : waitingForPages.get(tid)) {
-			if (pageid == pid) {
-				waitingForPages.remove(pid);
+	/**
+	 * @return the out-edges of tid in the waits-for graph
+	 */
+	private Set<TransactionId> waitsFor(TransactionId tid) {
+		HashSet<TransactionId> blockers = new HashSet<TransactionId>();
+		HashSet<Object> objs = waitingFor.get(tid);
+		if (objs == null) {
+			return blockers;
+		}
+		for (Object obj : objs) {
+			Lock lock = lockTable.get(obj);
+			if (lock != null) {
+				for (Lock.Request r : lock.requestsOf(tid)) {
+					blockers.addAll(lock.blockersOf(r));
+				}
 			}
 		}
+		return blockers;
 	}
 
-	
-	public boolean holdsLock(PageId pid, TransactionId tid){
-        if (getLockedPages().containsKey(tid)) {
-        	ArrayList<PageId> locksList = getLockedPages().get(tid);
-        	if (locksList.indexOf(pid) >= 0) { 
-        		return true;
-        	}
-        }
-    	return false;
-	}
-	
-	public void makeNewTxn(TransactionId tid) {
-		ArrayList<PageId> arr1 = new ArrayList<PageId>();
-		ArrayList<PageId> arr2 = new ArrayList<PageId>();
-		lockedPages.put(tid,arr1);
-		waitingForPages.put(tid, arr2);
-	}
-	
-	public Lock getLockInfo(PageId pid, Permissions perm) {
-		Lock lock = null;
-		String type = ""; 
-		if (perm!=null) {
-			if (perm.toString() == "READ_ONLY") {type = "SHARED";}
-			if (perm.toString() == "READ_WRITE") {type = "EXCLUSIVE"; }
-		}
-		PageId pageId = pid;
-		if (lockTable.containsKey(pageId)) {
-			lock = lockTable.get(pageId);
-			// check if upgrading!
-			if (lock.getType().equals("SHARED") && type.equals("EXCLUSIVE")){
-					lock.setType("UPGRADE");
+	/**
+	 * Refuse every request tid is waiting on, so its threads abort it.
+	 */
+	private void abortWaits(TransactionId tid) {
+		HashSet<Object> objs = waitingFor.get(tid);
+		if (objs == null) {
+			return;
+		}
+		for (Object obj : new ArrayList<Object>(objs)) {
+			Lock lock = lockTable.get(obj);
+			forgetWait(tid, obj);
+			if (lock == null) {
+				continue;
 			}
-			if (lock.getType().equals("EXCLUSIVE") && type.equals("SHARED")){
-				System.out.println("here?");
-				lock.setType("DOWNGRADE");
+			for (Lock.Request r : lock.requestsOf(tid)) {
+				lock.dequeue(r);
+				r.abort();
 			}
+			wakeWaiters(lock);
 		}
-		else { // have not used a lock on this object yet
-			lock = new Lock(pid,type);
-			lockTable.put(pageId,lock);
+	}
+
+	/**
+	 * Park until request is granted or refused.
+	 */
+	private void awaitGrant(Lock.Request request, Object obj) throws TransactionAbortedException {
+		try {
+			while (!request.granted && !request.aborted && !Thread.currentThread().isInterrupted()) {
+				LockSupport.park(this);
+			}
+		} finally {
+			// also reached if the thread is stopped while parked
+			synchronized (this) {
+				if (!request.granted && !request.aborted) {
+					cancel(request, obj);
+				}
+			}
+		}
+		if (!request.granted) {
+			throw new TransactionAbortedException();
 		}
-		return lock;
 	}
-	
+
 	/**
-	 * Given an id, that object must release all of its locks
-	 * @param pid
-	 * @return true if object successfully releases locks, if not false
+	 * Take a request that will not be granted out of its queue.  Caller
+	 * holds this monitor.
 	 */
-	
-	public HashMap<PageId, Lock> getLockTable() {
-		return lockTable;
+	private void cancel(Lock.Request request, Object obj) {
+		Lock lock = lockTable.get(obj);
+		forgetWait(request.tid, obj);
+		if (lock == null) {
+			return;
+		}
+		lock.dequeue(request);
+		// requests queued behind this one may be grantable now
+		wakeWaiters(lock);
+	}
+
+	/**
+	 * Grant lock to whichever waiters can now have it and unpark them.
+	 * Caller holds this monitor.
+	 */
+	private void wakeWaiters(Lock lock) {
+		for (Lock.Request r : lock.grantWaiters()) {
+			forgetWait(r.tid, lock.getId());
+			lockGranted(r.tid, lock.getId());
+			r.wake();
+		}
+		if (lock.isUnused()) {
+			lockTable.remove(lock.getId());
+		}
+	}
+
+	private void lockGranted(TransactionId tid, Object obj) {
+		HashSet<PageId> pages = txnSet(lockedPages, tid);
+		if (!txnSet(heldLocks, tid).add(obj)) {
+			return;
+		}
+		if (obj instanceof PageId) {
+			PageId pid = (PageId) obj;
+			pages.add(pid);
+			countPageLock(tid, pid.getTableId(), 1);
+		}
 	}
 
-	public HashMap<TransactionId, ArrayList<PageId>> getLockedPages() {
-		return lockedPages;
+	/**
+	 * Give up tid's hold on lock and wake the waiters that can proceed.
+	 * Caller holds this monitor.
+	 */
+	private void releaseHeld(TransactionId tid, Lock lock) {
+		lock.deleteTransaction(tid);
+		HashSet<Object> held = heldLocks.get(tid);
+		if (held != null) {
+			held.remove(lock.getId());
+		}
+		if (lock.getId() instanceof PageId) {
+			countPageLock(tid, ((PageId) lock.getId()).getTableId(), -1);
+		}
+		wakeWaiters(lock);
 	}
 
-	public HashMap<TransactionId, ArrayList<PageId>> getWaitingForPages() {
-		return waitingForPages;
+	private void countPageLock(TransactionId tid, int table, int delta) {
+		HashMap<Integer, Integer> counts = pageLockCounts.get(tid);
+		if (counts == null) {
+			counts = new HashMap<Integer, Integer>();
+			pageLockCounts.put(tid, counts);
+		}
+		Integer n = counts.get(table);
+		counts.put(table, (n == null ? 0 : n) + delta);
+	}
+
+	private void forgetWait(TransactionId tid, Object obj) {
+		HashSet<Object> objs = waitingFor.get(tid);
+		if (objs != null) {
+			objs.remove(obj);
+		}
+	}
+
+	private static <T> HashSet<T> txnSet(HashMap<TransactionId, HashSet<T>> table, TransactionId tid) {
+		HashSet<T> set = table.get(tid);
+		if (set == null) {
+			// kept in lock order, so pages are flushed in the order locked
+			set = new LinkedHashSet<T>();
+			table.put(tid, set);
+		}
+		return set;
+	}
+
+	/**
+	 * Release tid's lock on pid, if it has one, and wake the waiters that
+	 * can proceed.  A table lock covering the page is kept.
+	 */
+	public synchronized void releaseLock(PageId pid, TransactionId tid) {
+		HashSet<PageId> pages = lockedPages.get(tid);
+		if (pages != null) {
+			pages.remove(pid);
+		}
+		Lock lock = lockTable.get(pid);
+		if (lock == null || !lock.isHeldBy(tid)) {
+			return;
+		}
+		releaseHeld(tid, lock);
+	}
+
+	/**
+	 * Release every lock tid holds, refuse any it is still waiting for, and
+	 * forget about the transaction.
+	 */
+	public synchronized void releaseAllLocks(TransactionId tid) {
+		abortWaits(tid);
+		HashSet<Object> held = heldLocks.remove(tid);
+		lockedPages.remove(tid);
+		waitingFor.remove(tid);
+		pageLockCounts.remove(tid);
+		wounded.remove(tid);
+		if (held == null) {
+			return;
+		}
+		for (Object obj : held) {
+			Lock lock = lockTable.get(obj);
+			if (lock != null) {
+				lock.deleteTransaction(tid);
+				wakeWaiters(lock);
+			}
+		}
+	}
+
+	public synchronized boolean holdsLock(PageId pid, TransactionId tid){
+		HashSet<PageId> locksList = lockedPages.get(tid);
+		return locksList != null && locksList.contains(pid);
+	}
+
+	/**
+	 * @return the mode tid holds tableId's table lock in, or null
+	 */
+	public synchronized Lock.Mode getTableLockMode(int tableId, TransactionId tid) {
+		Lock lock = lockTable.get(tableId);
+		return lock == null ? null : lock.getMode(tid);
+	}
+
+	/**
+	 * @return a copy of the pages tid holds locks on, directly or through a
+	 * table lock, or null if tid has never been granted a lock
+	 */
+	public synchronized ArrayList<PageId> getLockedPages(TransactionId tid) {
+		HashSet<PageId> pages = lockedPages.get(tid);
+		return pages == null ? null : new ArrayList<PageId>(pages);
+	}
+
+	/**
+	 * @return the pages tid is waiting to lock
+	 */
+	public synchronized ArrayList<PageId> getWaitingForPages(TransactionId tid) {
+		ArrayList<PageId> pages = new ArrayList<PageId>();
+		HashSet<Object> objs = waitingFor.get(tid);
+		if (objs != null) {
+			for (Object obj : objs) {
+				if (obj instanceof PageId) {
+					pages.add((PageId) obj);
+				}
+			}
+		}
+		return pages;
 	}
 
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.channels.Channels;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -18,7 +19,7 @@ import java.lang.reflect.*;
  writes from happening); many of the methods in BufferPool are also
  synchronized (for similar reasons.)  Problem is that BufferPool writes
  log records (on page flushed) and the log file flushes BufferPool
- pages (on checkpoints and recovery.)  This can lead to deadlock.  For
+ pages (on aborts and recovery.)  This can lead to deadlock.  For
  that reason, any LogFile operation that needs to access the BufferPool
  must not be declared synchronized and must begin with a block like:
 
@@ -32,6 +33,34 @@ import java.lang.reflect.*;
  }
  }
  </pre>
+
+ <u> Buffering note: </u>
+ <p>
+
+ Records are appended to an in-memory buffer, and a log writer thread
+ writes the buffer out and forces it.  Offsets (LSNs) are still file
+ offsets: a record starts where it will be once the buffer is written.
+ {@link #force} and commits wait until the writer has forced the log up
+ to their record, so committers that arrive while a force is under way
+ share the next one (group commit).  The writer may also hold a force
+ back for up to {@link #setMaxCommitDelay} ms while other transactions
+ are still running, to gather more commits into it.  Anything that reads
+ the log file or writes it directly must first wait for the buffer to
+ drain, with {@link #drain}.
+
+ <u> Checkpoint note: </u>
+ <p>
+
+ Checkpoints are fuzzy: they write no pages and block nobody, and only
+ record the running transactions and the BufferPool's dirty page table.
+ Recovery starts at the oldest change in that table, and undo needs the
+ log back to the first record of the oldest running transaction, so
+ {@link #logTruncate} throws away everything before the earlier of the
+ two.  Truncating copies the part of the log that is kept, so a checkpoint
+ only truncates once the prefix it can free is at least MIN_TRUNCATE_BYTES
+ and no smaller than the part it has to copy; the copying then costs no
+ more than the log space it reclaims.  LSNs stay the same when the log is
+ truncated: the header holds the LSN of the first record in the file.
  */
 
 /**
@@ -39,20 +68,26 @@ import java.lang.reflect.*;
  * <p/>
  * <ul>
  * <p/>
- * <li> The first long integer of the file represents the offset of the
+ * <li> The first long integer of the file represents the LSN of the
  * last written checkpoint, or -1 if there are no checkpoints
  * <p/>
+ * <li> The second long integer is the LSN of the first record in the file.
+ * The offset of a record in the file is its LSN minus that, plus the size
+ * of the header; until the log is truncated, the two are the same.  A log
+ * that is started over instead of recovered keeps counting from the LSN
+ * where the old one ended, so LSNs only ever grow.
+ * <p/>
  * <li> All additional data in the log consists of log records.  Log
  * records are variable length.
  * <p/>
  * <li> Each log record begins with an integer type and a long integer
  * transaction id.
  * <p/>
- * <li> Each log record ends with a long integer file offset representing
- * the position in the log file where the record began.
+ * <li> Each log record ends with a long integer LSN representing
+ * the position in the log where the record began.
  * <p/>
- * <li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
- * CHECKPOINT, and CLR
+ * <li> There are ten record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * CHECKPOINT, CLR, SLOT_INSERT, SLOT_DELETE, FIELD_UPDATE and SLOT_CLR
  * <p/>
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  * <p/>
@@ -65,10 +100,19 @@ import java.lang.reflect.*;
  * compensating log record and it is written during undo phase of rollback
  * and recovery.
  * <p/>
+ * <li> Changes to HeapPages are logged physiologically instead, with one
+ * SLOT_INSERT, SLOT_DELETE or FIELD_UPDATE record per changed slot; see
+ * {@link SlotLogRecord} for their contents.  A SLOT_CLR record holds the
+ * type of the compensating slot record, then its contents.  The offset of
+ * a record is its LSN, and a HeapPage remembers the LSN of the last record
+ * applied to it, so that redo can skip records the page already reflects.
+ * <p/>
  * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
- * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id for each active transaction.
+ * the checkpoint was taken and their first log record on disk, and the
+ * dirty page table.  The format of the record is an integer count of the
+ * number of transactions, then a long integer transaction id and first
+ * LSN for each active transaction; then an integer count of dirty pages,
+ * then the table id, page number and recovery LSN of each.
  * <p/>
  * </ul>
  *
@@ -86,8 +130,34 @@ public class LogFile {
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
-
-    private Set<Long> activeTids = new HashSet<Long>();
+    // checkpoint LSN and LSN of the first record
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
+
+    // running transactions and the LSNs of their BEGIN records
+    private Map<Long, Long> activeTids = new HashMap<Long, Long>();
+    private long base = HEADER_SIZE;  // LSN of the first record in the file
+    private LogReader reader;
+
+    // writer wakes up on its own once this much is buffered
+    static final int LOG_BUFFER_SIZE = 1 << 20;
+    // read size of forward scans of the log
+    static final int SCAN_BUFFER_SIZE = 1 << 16;
+    // an idle writer thread exits after this long, in ms
+    static final long WRITER_IDLE_MS = 1000;
+    // a checkpoint truncates the log only once it can free this much
+    static final long MIN_TRUNCATE_BYTES = 1 << 16;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private long bufferStart;  // log offset of the first buffered byte
+    private long durable;      // the log is forced up to this offset
+    private long requested;    // someone waits for the log up to here
+    private boolean writing;   // writer is writing outside the monitor
+    private IOException writeError;
+    private int committers;    // commits waiting for their record to be forced
+    private long maxCommitDelay = 0;
+    private int numForces;
+    private LogWriter writer;
 
     /**
      * Constructor.
@@ -105,7 +175,8 @@ public class LogFile {
         this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
-        logFileRecovery = new LogFileRecovery(new RandomAccessFile(logFile, "r"));
+        reader = new LogReader(logFile);
+        logFileRecovery = new LogFileRecovery(reader);
 
 
         // install shutdown hook to force cleanup on close
@@ -125,15 +196,177 @@ public class LogFile {
         // the log.
         if (recoveryUndecided) {
             recoveryUndecided = false;
+            // pages on disk keep the LSNs of the old log, so the new one
+            // starts after its end: otherwise redo would take pages for
+            // newer than records they have never seen
+            long start = Math.max(HEADER_SIZE, reader.length());
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
+            raf.writeLong(start);
+            base = start;
+            reader.reload();
+            bufferStart = durable = requested = position(raf.length());
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    /**
+     * @return the log offset where the next record will start
+     */
+    private long position() {
+        return bufferStart + buffer.size();
+    }
+
+    /**
+     * @return the LSN at offset in the log file
+     */
+    private long position(long offset) {
+        return offset - HEADER_SIZE + base;
+    }
+
+    /**
+     * @return the offset in the log file of the record at lsn
+     */
+    private long offset(long lsn) {
+        return lsn - base + HEADER_SIZE;
+    }
+
+    /**
+     * Set how long, in ms, the log writer may hold back a force to wait for
+     * the commits of other running transactions.  0 (the default) forces
+     * as soon as somebody waits.
+     */
+    public synchronized void setMaxCommitDelay(long ms) {
+        maxCommitDelay = ms;
+    }
+
+    /**
+     * @return how many times the log writer has forced the log
+     */
+    synchronized int numForces() {
+        return numForces;
+    }
+
+    /**
+     * Wait until the log is forced up to offset lsn.  Caller must hold
+     * this monitor, which is released while waiting.
+     */
+    private void awaitDurable(long lsn) throws IOException {
+        if (requested < lsn) {
+            requested = lsn;
+        }
+        if (writer == null) {
+            writer = new LogWriter();
+            writer.start();
         }
-        // we're about to append a log record... make sure we're at the end of the log!
-        if (raf.getFilePointer() != raf.length()) {
-            throw new RuntimeException("About to append to log file but not" +
-                    " located at end of log!  Risk overwriting log data!");
+        notifyAll();
+        try {
+            while (durable < lsn) {
+                if (writeError != null) {
+                    throw writeError;
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted waiting for the log");
+        }
+    }
+
+    /**
+     * Force everything appended so far and wait until the writer is idle,
+     * so the log file can be read or written directly.  Caller must hold
+     * this monitor.
+     */
+    void drain() throws IOException {
+        awaitDurable(position());
+        try {
+            while (writing) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted waiting for the log");
+        }
+    }
+
+    /**
+     * Writes the buffer out and forces it whenever somebody waits for it.
+     */
+    private class LogWriter extends Thread {
+        LogWriter() {
+            super("log writer");
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    long start, offset;
+                    byte[] bytes;
+                    synchronized (LogFile.this) {
+                        if (!awaitWork()) {
+                            writer = null;
+                            return;
+                        }
+                        start = bufferStart;
+                        offset = offset(start);
+                        bytes = buffer.toByteArray();
+                        buffer.reset();
+                        bufferStart += bytes.length;
+                        writing = true;
+                    }
+                    IOException error = null;
+                    try {
+                        raf.seek(offset);
+                        raf.write(bytes);
+                        raf.getChannel().force(true);
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                    synchronized (LogFile.this) {
+                        writing = false;
+                        if (error != null) {
+                            writeError = error;
+                        } else {
+                            durable = start + bytes.length;
+                            numForces++;
+                        }
+                        LogFile.this.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                synchronized (LogFile.this) {
+                    writer = null;
+                }
+            }
+        }
+
+        /**
+         * Wait until there is something to force, and if other transactions
+         * may be about to commit, up to maxCommitDelay more for them.
+         *
+         * @return false if the writer has been idle for WRITER_IDLE_MS
+         */
+        private boolean awaitWork() throws InterruptedException {
+            while (requested <= durable && buffer.size() < LOG_BUFFER_SIZE) {
+                long idleSince = System.currentTimeMillis();
+                LogFile.this.wait(WRITER_IDLE_MS);
+                if (requested <= durable && buffer.size() < LOG_BUFFER_SIZE
+                        && System.currentTimeMillis() - idleSince >= WRITER_IDLE_MS) {
+                    return false;
+                }
+            }
+            long deadline = System.currentTimeMillis() + maxCommitDelay;
+            while (committers > 0 && committers < activeTids.size()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    break;
+                }
+                LogFile.this.wait(left);
+            }
+            return true;
         }
     }
 
@@ -142,11 +375,11 @@ public class LogFile {
         // transactions and so checking for active can cause tests to fail
         /*
         if (shouldBeActive) {
-            if (!activeTids.contains(tid.getId())) {
+            if (!activeTids.containsKey(tid.getId())) {
                 throw new IOException("This tid should be active but is not!");
             }
         } else {
-            if (activeTids.contains(tid.getId())) {
+            if (activeTids.containsKey(tid.getId())) {
                 throw new IOException("This tid should NOT be active but it is!");
             }
         }
@@ -162,16 +395,17 @@ public class LogFile {
             throws IOException {
         checkActive(tid, false);
         preAppend();
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(recordStart);
-        activeTids.add(tid.getId());
+        long recordStart = position();
+        out.writeInt(LogType.BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(recordStart);
+        activeTids.put(tid.getId(), recordStart);
     }
 
     /**
      * Write a commit record to disk for the specified tid,
-     * and force the log to disk.
+     * and force the log to disk.  The force is shared with the other
+     * transactions committing meanwhile.
      *
      * @param tid The committing transaction.
      */
@@ -180,11 +414,16 @@ public class LogFile {
         checkActive(tid, true);
         preAppend();
 
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(recordStart);
-        force();
+        long recordStart = position();
+        out.writeInt(LogType.COMMIT_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(recordStart);
+        committers++;
+        try {
+            awaitDurable(position());
+        } finally {
+            committers--;
+        }
         activeTids.remove(tid.getId());
     }
 
@@ -204,9 +443,17 @@ public class LogFile {
                 //should we verify that this is a live transaction?
                 checkActive(tid, true);
 
+                // rollback works on the disk copies of pages, so they must
+                // include every commit
+                Database.getBufferPool().writeDirtyPages(true);
+
                 // must do this here, since rollback only works for
                 // live transactions (needs tidToFirstLogRecord)
+                drain();
                 logFileRecovery.rollback(tid);
+                // without it, recovery would take tid for a loser and
+                // undo it again, over later transactions' changes
+                logAbort(tid.getId());
             }
         }
     }
@@ -220,10 +467,10 @@ public class LogFile {
      */
     public synchronized void logAbort(Long tid) throws IOException {
         preAppend();
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.ABORT_RECORD);
-        raf.writeLong(tid);
-        raf.writeLong(recordStart);
+        long recordStart = position();
+        out.writeInt(LogType.ABORT_RECORD);
+        out.writeLong(tid);
+        out.writeLong(recordStart);
         force();
         activeTids.remove(tid);
     }
@@ -231,13 +478,17 @@ public class LogFile {
     /**
      * Write an UPDATE record to disk for the specified tid and page
      * (with provided         before and after images.)
+     * For HeapPages, write a slot record for each slot that differs
+     * between the images instead, and set after's LSN to the last one.
      *
      * @param tid    The transaction performing the write
      * @param before The before image of the page
      * @param after  The after image of the page
+     * @return the LSN of the first record written, or -1 if the images
+     * do not differ
      * @see simpledb.Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
+    public synchronized long logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
         checkActive(tid, true);
@@ -251,12 +502,59 @@ public class LogFile {
            start offset
         */
 
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(recordStart);
+        if (before instanceof HeapPage && after instanceof HeapPage) {
+            return logSlots(tid, (HeapPage) before, (HeapPage) after);
+        }
+        long recordStart = position();
+        out.writeInt(LogType.UPDATE_RECORD);
+        out.writeLong(tid.getId());
+        writePageData(out, before);
+        writePageData(out, after);
+        out.writeLong(recordStart);
+        return recordStart;
+    }
+
+    private long logSlots(TransactionId tid, HeapPage before, HeapPage after)
+            throws IOException {
+        long first = -1;
+        long lsn = 0;
+        // only slots changed since the before image can differ from it
+        for (int slot : after.dirtySlots()) {
+            SlotLogRecord rec = SlotLogRecord.diff(after.getId(), slot,
+                    before.getSlotData(slot), after.getSlotData(slot));
+            if (rec != null) {
+                lsn = position();
+                out.writeInt(rec.type);
+                out.writeLong(tid.getId());
+                rec.write(out);
+                out.writeLong(lsn);
+                if (first < 0) {
+                    first = lsn;
+                }
+            }
+        }
+        if (lsn != 0) {
+            after.setLsn(lsn);
+        }
+        return first;
+    }
+
+    /**
+     * Write a SLOT_CLR record for the specified tid, which undid a slot
+     * record by applying compensation.
+     *
+     * @return the LSN of the new record
+     */
+    synchronized long logCLR(Long tid, SlotLogRecord compensation)
+            throws IOException {
+        preAppend();
+        long recordStart = position();
+        out.writeInt(LogType.SLOT_CLR_RECORD);
+        out.writeLong(tid);
+        out.writeInt(compensation.type);
+        compensation.write(out);
+        out.writeLong(recordStart);
+        return recordStart;
     }
 
     /**
@@ -293,15 +591,15 @@ public class LogFile {
            after page data (see writePageData)
            start offset
         */
-        Long recordStart = raf.getFilePointer();
-        raf.writeInt(LogType.CLR_RECORD);
-        raf.writeLong(tid);
-        writePageData(raf, after);
-        raf.writeLong(recordStart);
+        long recordStart = position();
+        out.writeInt(LogType.CLR_RECORD);
+        out.writeLong(tid);
+        writePageData(out, after);
+        out.writeLong(recordStart);
     }
 
 
-    static void writePageData(RandomAccessFile raf, Page p) throws IOException {
+    static void writePageData(DataOutput raf, Page p) throws IOException {
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -328,7 +626,7 @@ public class LogFile {
         raf.write(pageData);
     }
 
-    static Page readPageData(RandomAccessFile raf) throws IOException {
+    static Page readPageData(DataInput raf) throws IOException {
         PageId pid;
         Page newPage = null;
 
@@ -351,7 +649,7 @@ public class LogFile {
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
@@ -376,47 +674,179 @@ public class LogFile {
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Checkpoint the log and write a checkpoint record.  The checkpoint
+     * writes no pages; see the checkpoint note above.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                preAppend();
-                long startCpOffset, endCpOffset;
-
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(LogType.CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(activeTids.size());
-                for (Long key : activeTids) {
-                    raf.writeLong(key);
-                }
+        synchronized (this) {
+            preAppend();
+            // BufferPool adds to the table only while holding this monitor
+            Map<PageId, Long> dirty = Database.getBufferPool().dirtyPageTable();
+            long startCpOffset = position();
+            out.writeInt(LogType.CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(activeTids.size());
+            for (Map.Entry<Long, Long> e : activeTids.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(startCpOffset);
+            //write the dirty page table
+            out.writeInt(dirty.size());
+            for (Map.Entry<PageId, Long> e : dirty.entrySet()) {
+                out.writeInt(e.getKey().getTableId());
+                out.writeInt(e.getKey().pageNumber());
+                out.writeLong(e.getValue());
             }
-        }
+            out.writeLong(startCpOffset);
 
+            //once the CP is written, make sure the CP location at the
+            // beginning of the log file is updated
+            drain();
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.getChannel().force(true);
+        }
 
-        logTruncate();
+        truncate(false);
     }
 
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption: everything before the last checkpoint, the first record
+     * of each running transaction and the oldest change of each page in the
+     * dirty page table.  The rest is copied to a new file that replaces the
+     * log.
+     */
+    public void logTruncate() throws IOException {
+        truncate(true);
+    }
+
+    /**
+     * @param always false to truncate only if the unneeded prefix is worth
+     *               copying the rest of the log for (see the checkpoint note)
+     */
+    private synchronized void truncate(boolean always) throws IOException {
+        if (recoveryUndecided) {
+            // the log may still be needed by recover()
+            return;
+        }
+        drain();
+        long checkpoint = reader.checkpoint();
+        if (checkpoint == NO_CHECKPOINT_ID) {
+            return;
+        }
+        long keep = checkpoint;
+        for (long first : activeTids.values()) {
+            keep = Math.min(keep, first);
+        }
+        for (long recLsn : Database.getBufferPool().dirtyPageTable().values()) {
+            keep = Math.min(keep, recLsn);
+        }
+        if (keep <= base) {
+            return;
+        }
+        long reclaimable = keep - base;
+        if (!always && (reclaimable < MIN_TRUNCATE_BYTES
+                || reclaimable < position() - keep)) {
+            return;
+        }
+
+        File tmp = new File(logFile.getPath() + ".truncate");
+        RandomAccessFile copy = new RandomAccessFile(tmp, "rw");
+        try {
+            copy.setLength(0);
+            copy.writeLong(checkpoint);
+            copy.writeLong(keep);
+            raf.seek(offset(keep));
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = raf.read(buf)) > 0) {
+                copy.write(buf, 0, n);
+            }
+            copy.getChannel().force(true);
+        } finally {
+            copy.close();
+        }
+        raf.close();
+        reader.close();
+        if (!tmp.renameTo(logFile)) {
+            throw new IOException("could not replace " + logFile + " with " + tmp);
+        }
+        raf = new RandomAccessFile(logFile, "rw");
+        base = keep;
+        reader = new LogReader(logFile);
+        logFileRecovery = new LogFileRecovery(reader);
+    }
+
+    /**
+     * @return the LSN of the first record in the log file
      */
-    public synchronized void logTruncate() throws IOException {
-        // todo: implement me
+    synchronized long firstLsn() {
+        return base;
+    }
+
+    /**
+     * A read-only view of the log file in which offsets are LSNs: seek,
+     * getFilePointer and length skip the header and account for the part
+     * of the log that has been truncated.
+     */
+    static class LogReader extends RandomAccessFile {
+        private long base = HEADER_SIZE;
+
+        LogReader(File f) throws IOException {
+            super(f, "r");
+            reload();
+        }
+
+        /**
+         * Read the header again, after it was written.
+         */
+        void reload() throws IOException {
+            if (super.length() >= HEADER_SIZE) {
+                super.seek(LONG_SIZE);
+                base = readLong();
+            }
+        }
+
+        /**
+         * @return the LSN of the last checkpoint, or NO_CHECKPOINT_ID
+         */
+        long checkpoint() throws IOException {
+            super.seek(0);
+            return readLong();
+        }
+
+        /**
+         * @return the LSN of the first record in the file
+         */
+        long firstLsn() {
+            return base;
+        }
+
+        /**
+         * @return a buffered stream of the log from lsn to its end.  It
+         * shares the file pointer with this reader; do not close it.
+         */
+        DataInputStream streamFrom(long lsn) throws IOException {
+            seek(lsn);
+            return new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(getChannel()), SCAN_BUFFER_SIZE));
+        }
+
+        public void seek(long lsn) throws IOException {
+            super.seek(lsn - base + HEADER_SIZE);
+        }
+
+        public long getFilePointer() throws IOException {
+            return super.getFilePointer() - HEADER_SIZE + base;
+        }
+
+        public long length() throws IOException {
+            return super.length() - HEADER_SIZE + base;
+        }
     }
 
     /**
@@ -427,6 +857,10 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            drain();
+            if (writer != null) {
+                writer.interrupt();
+            }
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -444,13 +878,20 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 raf.seek(raf.length());      // go to end of log file
+                reader.reload();
+                base = reader.firstLsn();
+                bufferStart = durable = requested = position(raf.length());
                 logFileRecovery.recover();
+                drain();
             }
         }
     }
 
+    /**
+     * Wait until every record appended so far is forced to disk.
+     */
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        awaitDurable(position());
     }
 
 }
@@ -1,19 +1,30 @@
 package simpledb;
 
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author mhay
  */
 class LogFileRecovery {
 
-    private final RandomAccessFile readOnlyLog;
+    private final LogFile.LogReader readOnlyLog;
 
     /**
      * Helper class for LogFile during rollback and recovery.
@@ -24,7 +35,7 @@ class LogFileRecovery {
      *
      * @param readOnlyLog a read only copy of the log file
      */
-    public LogFileRecovery(RandomAccessFile readOnlyLog) {
+    public LogFileRecovery(LogFile.LogReader readOnlyLog) {
         this.readOnlyLog = readOnlyLog;
     }
 
@@ -36,8 +47,7 @@ class LogFileRecovery {
         // and then jump back to it after printing
         Long currentOffset = readOnlyLog.getFilePointer();
 
-        readOnlyLog.seek(0);
-        long lastCheckpoint = readOnlyLog.readLong(); // ignore this
+        readOnlyLog.seek(readOnlyLog.firstLsn());
         System.out.println("BEGIN LOG FILE");
         while (readOnlyLog.getFilePointer() < readOnlyLog.length()) {
             int type = readOnlyLog.readInt();
@@ -61,14 +71,26 @@ class LogFileRecovery {
                     afterImg = LogFile.readPageData(readOnlyLog);  // after image
                     System.out.println("<T_" + tid + " CLR pid=" + afterImg.getId() +">");
                     break;
+                case LogType.SLOT_INSERT_RECORD:
+                case LogType.SLOT_DELETE_RECORD:
+                case LogType.FIELD_UPDATE_RECORD:
+                    System.out.println("<T_" + tid + " " + SlotLogRecord.read(type, readOnlyLog) + ">");
+                    break;
+                case LogType.SLOT_CLR_RECORD:
+                    int opType = readOnlyLog.readInt();
+                    System.out.println("<T_" + tid + " CLR " + SlotLogRecord.read(opType, readOnlyLog) + ">");
+                    break;
                 case LogType.CHECKPOINT_RECORD:
                     int count = readOnlyLog.readInt();
                     Set<Long> tids = new HashSet<Long>();
                     for (int i = 0; i < count; i++) {
                         long nextTid = readOnlyLog.readLong();
+                        readOnlyLog.readLong();
                         tids.add(nextTid);
                     }
-                    System.out.println("<T_" + tid + " CHECKPOINT " + tids + ">");
+                    int dirty = readOnlyLog.readInt();
+                    readOnlyLog.skipBytes(dirty * (2 * LogFile.INT_SIZE + LogFile.LONG_SIZE));
+                    System.out.println("<T_" + tid + " CHECKPOINT " + tids + " dirty=" + dirty + ">");
                     break;
                 default:
                     throw new RuntimeException("Unexpected type!  Type = " + type);
@@ -82,6 +104,20 @@ class LogFileRecovery {
 
     }
 
+    /**
+     * Undo tid's slot record on disk, log the compensation and drop the
+     * page from the BufferPool.
+     */
+    private void undo(long tid, SlotLogRecord rec) throws IOException {
+        SlotLogRecord compensation = rec.inverse();
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(rec.pid.getTableId());
+        HeapPage page = (HeapPage) file.readPage(rec.pid);
+        compensation.redo(page);
+        page.setLsn(Database.getLogFile().logCLR(tid, compensation));
+        file.writePage(page);
+        Database.getBufferPool().discardPage(rec.pid);
+    }
+
     /**
      * Rollback the specified transaction, setting the state of any
      * of pages it updated to their pre-updated state.  To preserve
@@ -95,56 +131,45 @@ class LogFileRecovery {
      * @param tidToRollback The transaction to rollback
      * @throws java.io.IOException if tidToRollback has already committed
      */
-    public void rollback(TransactionId tidToRollback) throws IOException {	
-    	print();
-    	long offset = readOnlyLog.length() - LogFile.LONG_SIZE;
-        readOnlyLog.seek(offset); 
-        while (offset > 0){
-        	System.out.println("Roll back offset = " + offset);
-        	long start = readOnlyLog.readLong();
-        	readOnlyLog.seek(start);
-        	int type = readOnlyLog.readInt();
-        	System.out.println("Rollback type = " + type);
-        	long tid = readOnlyLog.readLong();
-        	System.out.println("Rollback tid = " + tid);
-        	
-        	if (type == LogType.BEGIN_RECORD) {
-        		System.out.println("Log Begin");
-        		break;
-        	}
-        	
-        	if (type == LogType.COMMIT_RECORD && tid == tidToRollback.getId()){
-        		throw new IOException("Transaction committed");
-        	}
-        	
-        	if (type == LogType.ABORT_RECORD) {
-        		throw new IOException("Transaction aborted.");
-        	}
-        	
-        	if (type == LogType.UPDATE_RECORD && tid == tidToRollback.getId()){
-        		System.out.println("Log UPDATE");
-        		Page before = LogFile.readPageData(readOnlyLog);
-        		System.out.println("page before (write) = " + before.getId());
-        		Page after = LogFile.readPageData(readOnlyLog);
-        		System.out.println("page after = " + after.getId());
-    			HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-    			file.writePage(before);
-    			System.out.println("discarding page = " + before.getId());
-    			Database.getBufferPool().discardPage(before.getId());
-    			Database.getLogFile().logCLR(tid, after);
-        	}
-        	
-        	if (type == LogType.CLR_RECORD) {
-        		break;
-        	}
-        	
-        	if (type == LogType.CHECKPOINT_RECORD) {
-        		//ummm...
-        		break;
-        	}
-
-        	offset = start - LogFile.LONG_SIZE;
-        	readOnlyLog.seek(offset);
+    public void rollback(TransactionId tidToRollback) throws IOException {
+        long id = tidToRollback.getId();
+        long offset = readOnlyLog.length() - LogFile.LONG_SIZE;
+        // other transactions' records are skipped: they may have begun,
+        // aborted or committed since tidToRollback began
+        while (offset > readOnlyLog.firstLsn()) {
+            readOnlyLog.seek(offset);
+            long start = readOnlyLog.readLong();
+            readOnlyLog.seek(start);
+            int type = readOnlyLog.readInt();
+            long tid = readOnlyLog.readLong();
+            offset = start - LogFile.LONG_SIZE;
+            if (tid != id) {
+                continue;
+            }
+
+            if (type == LogType.BEGIN_RECORD) {
+                break;
+            }
+            if (type == LogType.COMMIT_RECORD) {
+                throw new IOException("Transaction committed");
+            }
+            if (type == LogType.ABORT_RECORD) {
+                throw new IOException("Transaction aborted.");
+            }
+            if (type == LogType.CLR_RECORD || type == LogType.SLOT_CLR_RECORD) {
+                // already rolled back up to here
+                break;
+            }
+
+            if (type == LogType.UPDATE_RECORD) {
+                Page before = LogFile.readPageData(readOnlyLog);
+                HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(before.getId().getTableId());
+                file.writePage(before);
+                Database.getBufferPool().discardPage(before.getId());
+                Database.getLogFile().logCLR(tid, before);
+            } else if (SlotLogRecord.isSlotRecord(type)) {
+                undo(tid, SlotLogRecord.read(type, readOnlyLog));
+            }
         }
     }
 
@@ -152,86 +177,275 @@ class LogFileRecovery {
      * Recover the database system by ensuring that the updates of
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p/>
+     * Recovery follows ARIES, in three passes over the log:
+     * <ul>
+     * <li> Analysis reads forward from the last checkpoint and rebuilds the
+     * table of running transactions and the dirty page table: every page
+     * that may miss a logged change, with the LSN of the oldest one.
+     * <li> Redo reads forward from the oldest of those LSNs and collects
+     * the changes to each dirty page.  The pages are then redone in
+     * parallel, each by one thread that reads it once, applies the changes
+     * it does not reflect yet, and writes it once.
+     * <li> Undo collects the changes of the transactions that did not finish
+     * and undoes them newest first on cached pages, logging a CLR for each.
+     * </ul>
+     * Both forward passes read the log through a buffer rather than with a
+     * seek per record.
      *
      * This is called from LogFile.recover after both the LogFile and
      * the BufferPool are locked.
      */
     public void recover() throws IOException {
-    	readOnlyLog.seek(0);
-    	ArrayList<Long> losers = new ArrayList<Long>();
-    	Long pos = readOnlyLog.readLong();
-    	
-    	if (pos != -1) {
-    		readOnlyLog.seek(pos);
-    		readOnlyLog.readInt();
-    		readOnlyLog.readLong();
-    		int numTxns = readOnlyLog.readInt();
-    		for (int i = 0; i < numTxns; i++) {
-    			losers.add(readOnlyLog.readLong());
-    		}
-    		readOnlyLog.readLong();    		
-    	}
-    	else {
-    		//seek to where? beginning bc no chkpts?
-    		readOnlyLog.seek(0); 
-    		readOnlyLog.readInt();
-    		readOnlyLog.readLong();
-    	}
-    	
-    	while (readOnlyLog.getFilePointer() < readOnlyLog.length()) {
-    		int type = readOnlyLog.readInt();
-    		long tid = readOnlyLog.readLong();
-    		
-    		//type cases!
-    		if (type == LogType.BEGIN_RECORD) {
-    			losers.add(tid);
-    		}
-			if (type == LogType.COMMIT_RECORD) {
-			    losers.remove(tid);
-			}
-			if (type == LogType.ABORT_RECORD) {
-				losers.remove(tid);
-			}
-			if (type == LogType.UPDATE_RECORD) {
-				Page before = LogFile.readPageData(readOnlyLog);
-				Page after = LogFile.readPageData(readOnlyLog);
-				HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-				file.writePage(after);
-			}
-			if (type == LogType.CLR_RECORD) {
-				Page before = LogFile.readPageData(readOnlyLog);
-				HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-				file.writePage(before);
-			}
-			readOnlyLog.readLong();
-    	} //end while
-    	
-    	//undoing part 
-    	readOnlyLog.seek(readOnlyLog.length());
-    	pos = readOnlyLog.length();
-        while (losers.size() > 0){
-        	pos = pos - LogFile.LONG_SIZE;
-        	readOnlyLog.seek(pos);
-        	pos = readOnlyLog.readLong();
-        	readOnlyLog.seek(pos);
-        	int type = readOnlyLog.readInt();
-        	long tid = readOnlyLog.readLong();
-        	
-        	if (type == LogType.BEGIN_RECORD){
-        		if (losers.contains(tid)){
-        			losers.remove(tid);
-        			Database.getLogFile().logAbort(tid);
-        		}
-        	}
-        	if (type == LogType.UPDATE_RECORD){
-        		if (losers.contains(tid)) {
-        			Page before = Database.getLogFile().readPageData(readOnlyLog);
-    				HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-    				file.writePage(before);
-    				Database.getLogFile().logCLR(tid, before);
-        		}
-        	}
+        // analysis
+        HashMap<Long, Long> losers = new HashMap<Long, Long>();
+        HashMap<PageId, Long> dirty = new HashMap<PageId, Long>();
+        long checkpoint = readOnlyLog.checkpoint();
+        long from = checkpoint != LogFile.NO_CHECKPOINT_ID ? checkpoint : readOnlyLog.firstLsn();
+        DataInputStream in = readOnlyLog.streamFrom(from);
+        for (LogRecord rec = LogRecord.read(in); rec != null; rec = LogRecord.read(in)) {
+            switch (rec.type) {
+                case LogType.BEGIN_RECORD:
+                    losers.put(rec.tid, rec.lsn);
+                    break;
+                case LogType.COMMIT_RECORD:
+                case LogType.ABORT_RECORD:
+                    losers.remove(rec.tid);
+                    break;
+                case LogType.CHECKPOINT_RECORD:
+                    losers.putAll(rec.activeTids);
+                    dirty.putAll(rec.dirtyPages);
+                    break;
+                default:
+                    if (!dirty.containsKey(rec.pid)) {
+                        dirty.put(rec.pid, rec.lsn);
+                    }
+            }
+        }
+
+        // redo
+        if (!dirty.isEmpty()) {
+            LinkedHashMap<PageId, ArrayList<LogRecord>> changes =
+                    new LinkedHashMap<PageId, ArrayList<LogRecord>>();
+            in = readOnlyLog.streamFrom(Collections.min(dirty.values()));
+            for (LogRecord rec = LogRecord.read(in); rec != null; rec = LogRecord.read(in)) {
+                Long recLsn = rec.pid == null ? null : dirty.get(rec.pid);
+                if (recLsn == null || rec.lsn < recLsn) {
+                    continue;
+                }
+                ArrayList<LogRecord> list = changes.get(rec.pid);
+                if (list == null) {
+                    list = new ArrayList<LogRecord>();
+                    changes.put(rec.pid, list);
+                }
+                list.add(rec);
+            }
+            redo(changes);
+        }
+
+        // undo
+        if (!losers.isEmpty()) {
+            // each loser's changes not compensated yet; rollback undoes
+            // newest first, so a CLR compensates the newest one left
+            HashMap<Long, ArrayList<LogRecord>> pending = new HashMap<Long, ArrayList<LogRecord>>();
+            for (Long tid : losers.keySet()) {
+                pending.put(tid, new ArrayList<LogRecord>());
+            }
+            in = readOnlyLog.streamFrom(Collections.min(losers.values()));
+            for (LogRecord rec = LogRecord.read(in); rec != null; rec = LogRecord.read(in)) {
+                ArrayList<LogRecord> list = pending.get(rec.tid);
+                if (list == null || rec.pid == null) {
+                    continue;
+                }
+                if (rec.type == LogType.SLOT_CLR_RECORD || rec.type == LogType.CLR_RECORD) {
+                    if (!list.isEmpty()) {
+                        list.remove(list.size() - 1);
+                    }
+                } else {
+                    list.add(rec);
+                }
+            }
+            ArrayList<LogRecord> undo = new ArrayList<LogRecord>();
+            for (ArrayList<LogRecord> list : pending.values()) {
+                undo.addAll(list);
+            }
+            Collections.sort(undo, new Comparator<LogRecord>() {
+                public int compare(LogRecord a, LogRecord b) {
+                    return a.lsn < b.lsn ? -1 : a.lsn == b.lsn ? 0 : 1;
+                }
+            });
+            undo(undo);
+            for (Long tid : losers.keySet()) {
+                Database.getLogFile().logAbort(tid);
+            }
+        }
+    }
+
+    /**
+     * Redo changes, page by page and in parallel.
+     */
+    private void redo(Map<PageId, ArrayList<LogRecord>> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), changes.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<Void>> done = new ArrayList<Future<Void>>();
+            for (final Map.Entry<PageId, ArrayList<LogRecord>> e : changes.entrySet()) {
+                done.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        redoPage(e.getKey(), e.getValue());
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted during redo");
+        } catch (ExecutionException e) {
+            throw new IOException("redo failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        for (PageId pid : changes.keySet()) {
+            Database.getBufferPool().discardPage(pid);
+        }
+    }
+
+    /**
+     * Apply the changes to pid, in LSN order, that its disk copy does not
+     * reflect yet, and write it back if any were.
+     */
+    private static void redoPage(PageId pid, List<LogRecord> changes) throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page page = null;
+        boolean changed = false;
+        for (LogRecord rec : changes) {
+            if (rec.image != null) {
+                page = rec.image;
+                if (page instanceof HeapPage) {
+                    ((HeapPage) page).setLsn(rec.lsn);
+                }
+                changed = true;
+                continue;
+            }
+            if (page == null) {
+                page = file.readPage(pid);
+            }
+            HeapPage heapPage = (HeapPage) page;
+            if (heapPage.getLsn() >= rec.lsn) {
+                continue;
+            }
+            rec.slot.redo(heapPage);
+            heapPage.setLsn(rec.lsn);
+            changed = true;
+        }
+        if (changed) {
+            file.writePage(page);
+        }
+    }
 
+    /**
+     * Undo changes, newest first, logging a CLR for each.  Each page is
+     * read once and written once, after the CLRs are forced.
+     */
+    private void undo(List<LogRecord> changes) throws IOException {
+        LogFile log = Database.getLogFile();
+        HashMap<PageId, Page> pages = new HashMap<PageId, Page>();
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            LogRecord rec = changes.get(i);
+            if (rec.type == LogType.UPDATE_RECORD) {
+                pages.put(rec.pid, rec.before);
+                log.logCLR(rec.tid, rec.before);
+                continue;
+            }
+            Page page = pages.get(rec.pid);
+            if (page == null) {
+                page = Database.getCatalog().getDatabaseFile(rec.pid.getTableId()).readPage(rec.pid);
+                pages.put(rec.pid, page);
+            }
+            SlotLogRecord compensation = rec.slot.inverse();
+            compensation.redo((HeapPage) page);
+            ((HeapPage) page).setLsn(log.logCLR(rec.tid, compensation));
+        }
+        log.force();
+        for (Page page : pages.values()) {
+            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+            Database.getBufferPool().discardPage(page.getId());
+        }
+    }
+
+    /**
+     * One log record, as recovery reads it forward.
+     */
+    private static class LogRecord {
+        int type;
+        long tid;
+        long lsn;
+        // the page a change is to; null for other records
+        PageId pid;
+        // the change, for slot records and SLOT_CLRs
+        SlotLogRecord slot;
+        // the images, for UPDATE and CLR records
+        Page before;
+        Page image;
+        // the tables of a CHECKPOINT record
+        HashMap<Long, Long> activeTids;
+        HashMap<PageId, Long> dirtyPages;
+
+        /**
+         * @return the next record in the log, or null at its end
+         */
+        static LogRecord read(DataInputStream in) throws IOException {
+            LogRecord rec = new LogRecord();
+            try {
+                rec.type = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            rec.tid = in.readLong();
+            switch (rec.type) {
+                case LogType.BEGIN_RECORD:
+                case LogType.COMMIT_RECORD:
+                case LogType.ABORT_RECORD:
+                    break;
+                case LogType.UPDATE_RECORD:
+                    rec.before = LogFile.readPageData(in);
+                    rec.image = LogFile.readPageData(in);
+                    rec.pid = rec.image.getId();
+                    break;
+                case LogType.CLR_RECORD:
+                    rec.image = LogFile.readPageData(in);
+                    rec.pid = rec.image.getId();
+                    break;
+                case LogType.SLOT_CLR_RECORD:
+                    rec.slot = SlotLogRecord.read(in.readInt(), in);
+                    rec.pid = rec.slot.pid;
+                    break;
+                case LogType.CHECKPOINT_RECORD:
+                    rec.activeTids = new HashMap<Long, Long>();
+                    int numTxns = in.readInt();
+                    for (int i = 0; i < numTxns; i++) {
+                        rec.activeTids.put(in.readLong(), in.readLong());
+                    }
+                    rec.dirtyPages = new HashMap<PageId, Long>();
+                    int numDirty = in.readInt();
+                    for (int i = 0; i < numDirty; i++) {
+                        rec.dirtyPages.put(new HeapPageId(in.readInt(), in.readInt()), in.readLong());
+                    }
+                    break;
+                default:
+                    if (!SlotLogRecord.isSlotRecord(rec.type)) {
+                        throw new IOException("Unexpected type!  Type = " + rec.type);
+                    }
+                    rec.slot = SlotLogRecord.read(rec.type, in);
+                    rec.pid = rec.slot.pid;
+            }
+            rec.lsn = in.readLong();
+            return rec;
         }
     }
 }
@@ -11,4 +11,9 @@ public class LogType {
     public static final int BEGIN_RECORD = 4;
     public static final int CHECKPOINT_RECORD = 5;
     public static final int CLR_RECORD = 6;
+    // physiological records for HeapPages, see SlotLogRecord
+    public static final int SLOT_INSERT_RECORD = 7;
+    public static final int SLOT_DELETE_RECORD = 8;
+    public static final int FIELD_UPDATE_RECORD = 9;
+    public static final int SLOT_CLR_RECORD = 10;
 }
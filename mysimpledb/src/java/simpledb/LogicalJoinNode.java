@@ -35,6 +35,12 @@ public class LogicalJoinNode {
      */
     public Predicate.Op p;
 
+    /**
+     * The physical join chosen by the optimizer, or null if it has not
+     * costed this join
+     */
+    public JoinOptimizer.JoinAlgorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -77,6 +83,16 @@ public class LogicalJoinNode {
         return j2;
     }
 
+    /**
+     * Return a copy of this join that will be executed with the given
+     * algorithm.
+     */
+    public LogicalJoinNode withAlgorithm(JoinOptimizer.JoinAlgorithm algorithm) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j2.algorithm = algorithm;
+        return j2;
+    }
+
     @Override
     public boolean equals(Object o) {
         LogicalJoinNode j2 = (LogicalJoinNode) o;
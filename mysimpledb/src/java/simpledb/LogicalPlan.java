@@ -23,6 +23,12 @@ import java.util.NoSuchElementException;
  * best implementations for joins.
  */
 public class LogicalPlan {
+
+    /**
+     * Value of {@link #getLimit} for queries without a LIMIT clause
+     */
+    public static final int NO_LIMIT = -1;
+
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
@@ -34,8 +40,10 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    private int limit = NO_LIMIT;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
     private String query;
 //    private Query owner;
 
@@ -221,8 +229,8 @@ public class LogicalPlan {
     }
 
     /**
-     * Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-     * a single ORDER BY field.
+     * Add an ORDER BY expression in the specified order on the specified field.  Fields are
+     * sorted on in the order they are added, the first being the most significant.
      *
      * @param field the field to order by
      * @param asc   true if should be ordered in ascending order, false for descending order
@@ -230,11 +238,24 @@ public class LogicalPlan {
      */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field = disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
         hasOrderBy = true;
     }
 
+    /**
+     * Limit the query to its first limit result tuples.
+     *
+     * @param limit the most tuples to return, or NO_LIMIT
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
     /**
      * Given a name of a field, try to figure out what table it belongs to by looking
      * through all of the tables added via {@link #addScan}.
@@ -279,6 +300,70 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * The fields of table that the select list, filters, joins, grouping
+     * and ordering of this plan refer to, so that its scan can skip the
+     * others.
+     *
+     * @return indexes of the used fields, in table order, or null if the
+     * plan needs all of them (or refers to a field this cannot resolve,
+     * which physicalPlan reports)
+     */
+    private int[] usedColumns(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        boolean[] used = new boolean[td.numFields()];
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null) {
+                names.add(groupByField);
+            }
+        }
+        names.addAll(oByFields);
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+            }
+        }
+        try {
+            for (String name : names) {
+                String[] parts = name.split("[.]");
+                if (parts.length != 2 || parts[1].equals("*")) {
+                    return null;
+                }
+                if (parts[0].equals(table.alias)) {
+                    used[td.fieldNameToIndex(parts[1])] = true;
+                }
+            }
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        int count = 0;
+        for (boolean u : used) {
+            if (u) {
+                count++;
+            }
+        }
+        if (count == 0 || count == used.length) {
+            return null;
+        }
+        int[] columns = new int[count];
+        int k = 0;
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                columns[k++] = i;
+            }
+        }
+        return columns;
+    }
+
     /**
      * Convert the aggregate operator name s into an Aggregator.op operation.
      *
@@ -319,7 +404,8 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                        usedColumns(table));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -363,7 +449,9 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the scan may return only some fields, so look the field up in the table
+            int tableField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel = s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -502,7 +590,19 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+                ascs[i] = oByAscs.elementAt(i);
+            }
+            if (limit != NO_LIMIT) {
+                node = new TopK(fields, ascs, limit, node);
+            } else {
+                node = new OrderBy(fields, ascs, node);
+            }
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * LoserTree merges k sorted runs into one sorted stream, doing about log2(k)
+ * comparisons per output tuple.
+ * <p/>
+ * The tree is stored as an array: the runs are the leaves k..2k-1, each
+ * internal node 1..k-1 holds the run that lost the match played there, and
+ * slot 0 holds the overall winner.  After the winner's run advances, only
+ * the matches on its path to the root are replayed.  Ties go to the run
+ * with the lower index, so merging runs cut in input order is stable.
+ */
+class LoserTree {
+
+    private final SpillFile.Reader[] runs;
+    private final Tuple[] heads;
+    private final int[] tree;
+    private final Comparator<Tuple> cmp;
+    private final int k;
+
+    /**
+     * @param runs the runs to merge, each sorted by cmp
+     */
+    public LoserTree(List<SpillFile.Reader> runs, Comparator<Tuple> cmp) throws IOException {
+        this.k = runs.size();
+        this.runs = runs.toArray(new SpillFile.Reader[k]);
+        this.cmp = cmp;
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++) {
+            heads[i] = this.runs[i].next();
+        }
+        if (k > 0) {
+            tree[0] = build(1);
+        }
+    }
+
+    private int build(int node) {
+        if (node >= k) {
+            return node - k;
+        }
+        int l = build(2 * node);
+        int r = build(2 * node + 1);
+        if (beats(l, r)) {
+            tree[node] = r;
+            return l;
+        }
+        tree[node] = l;
+        return r;
+    }
+
+    /**
+     * @return true if the head of run a comes before the head of run b;
+     * exhausted runs lose to everything
+     */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null) {
+            return false;
+        }
+        if (heads[b] == null) {
+            return true;
+        }
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * @return the next tuple in merged order, or null when every run is
+     * exhausted
+     */
+    public Tuple next() throws IOException {
+        if (k == 0) {
+            return null;
+        }
+        int winner = tree[0];
+        Tuple result = heads[winner];
+        if (result == null) {
+            return null;
+        }
+        heads[winner] = runs[winner].next();
+        for (int node = (winner + k) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+        return result;
+    }
+
+    public void close() {
+        for (SpillFile.Reader r : runs) {
+            r.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU-K eviction.  A page that has been referenced fewer than K times has
+ * an infinite backward K-distance and is evicted before any page that has
+ * reached K references; pages seen only once by a scan therefore never push
+ * out pages the workload keeps coming back to.
+ * <p/>
+ * Exact LRU-K orders the hot set by the time of the K-th most recent
+ * reference, which needs a priority queue.  To keep victim selection O(1)
+ * this keeps both sets as LRU lists: the cold list (fewer than K
+ * references) is evicted first, in LRU order, then the hot list.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    // pid -> number of references so far, least recently used first
+    private final LinkedHashMap<PageId, Integer> cold = new LinkedHashMap<PageId, Integer>(16, 0.75f, true);
+    private final LinkedHashMap<PageId, Boolean> hot = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    public LruKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k number of references after which a page is considered hot
+     */
+    public LruKEvictionPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (hot.containsKey(pid) || cold.containsKey(pid)) {
+            pageAccessed(pid);
+        } else if (k == 1) {
+            hot.put(pid, Boolean.TRUE);
+        } else {
+            cold.put(pid, 1);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (hot.get(pid) != null) {
+            return;
+        }
+        Integer refs = cold.get(pid);
+        if (refs == null) {
+            return;
+        }
+        if (refs + 1 >= k) {
+            cold.remove(pid);
+            hot.put(pid, Boolean.TRUE);
+        } else {
+            cold.put(pid, refs + 1);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        cold.remove(pid);
+        hot.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = removeFirstEvictable(cold.keySet().iterator(), evictable);
+        if (victim == null) {
+            victim = removeFirstEvictable(hot.keySet().iterator(), evictable);
+        }
+        return victim;
+    }
+
+    static PageId removeFirstEvictable(Iterator<PageId> it, Evictable evictable) {
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
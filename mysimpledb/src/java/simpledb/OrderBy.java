@@ -1,20 +1,45 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p/>
+ * It is an external merge sort: the child is read in runs of at most
+ * maxTuplesInMemory tuples, each run is sorted in memory and written to a
+ * {@link SpillFile}, and the runs are merged with a {@link LoserTree}.  If
+ * there are more than {@link #MAX_MERGE_FANIN} runs, groups of them are
+ * merged into longer runs first.  Input that fits in a single run is never
+ * written out.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of tuples sorted in memory per run.
+     */
+    public static final int DEFAULT_MAX_TUPLES_IN_MEMORY = 100000;
+
+    /**
+     * Most runs merged at once.
+     */
+    static final int MAX_MERGE_FANIN = 64;
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int maxTuplesInMemory;
+    private final TupleComparator comparator;
+
+    // the whole input, when it fits in one run
+    private ArrayList<Tuple> childTups;
     private Iterator<Tuple> it;
-    private boolean asc;
+    // otherwise the sorted runs on disk
+    private ArrayList<SpillFile> runs;
+    private LoserTree merger;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -24,23 +49,60 @@ public class OrderBy extends Operator {
      * @param child        the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields, the first
+     * field being the most significant.
+     *
+     * @param orderbyFields the fields to which the sort is applied.
+     * @param asc           for each field, true if its sort order is ascending.
+     * @param child         the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        this(orderbyFields, asc, child, DEFAULT_MAX_TUPLES_IN_MEMORY);
+    }
+
+    /**
+     * @param maxTuplesInMemory the most tuples to sort in memory at once
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child, int maxTuplesInMemory) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort order per ORDER BY field");
+        }
         this.child = child;
-        td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.maxTuplesInMemory = Math.max(1, maxTuplesInMemory);
+        this.comparator = new TupleComparator(this.orderByFields, this.asc);
     }
 
     public boolean isASC() {
-        return this.asc;
+        return this.asc[0];
     }
 
     public int getOrderByField() {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
 
     public String getOrderFieldName() {
-        return this.orderByFieldName;
+        return td.getFieldName(orderByFields[0]);
+    }
+
+    /**
+     * @return all ORDER BY fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return the sort order of each ORDER BY field
+     */
+    public boolean[] getAscOrders() {
+        return asc.clone();
     }
 
     public TupleDesc getTupleDesc() {
@@ -50,21 +112,30 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        try {
+            sort();
+            startOutput();
+        } catch (IOException e) {
+            discardRuns();
+            throw new DbException("ORDER BY could not spill: " + e.getMessage());
+        }
         super.open();
     }
 
     public void close() {
         super.close();
+        discardRuns();
+        childTups = null;
         it = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        try {
+            startOutput();
+        } catch (IOException e) {
+            throw new DbException("ORDER BY could not reread its runs: " + e.getMessage());
+        }
     }
 
     /**
@@ -76,42 +147,130 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merger != null) {
+            try {
+                return merger.next();
+            } catch (IOException e) {
+                throw new DbException("ORDER BY could not read a run: " + e.getMessage());
+            }
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
     }
 
-    @Override
-    public DbIterator[] getChildren() {
-        return new DbIterator[]{this.child};
+    /**
+     * Read the child into sorted runs, then merge runs until at most
+     * MAX_MERGE_FANIN are left.
+     */
+    private void sort() throws DbException, TransactionAbortedException, IOException {
+        discardRuns();
+        ArrayList<Tuple> run = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            if (run.size() == maxTuplesInMemory) {
+                spillRun(run);
+                run = new ArrayList<Tuple>();
+            }
+            run.add(child.next());
+        }
+        if (runs == null) {
+            Collections.sort(run, comparator);
+            childTups = run;
+            return;
+        }
+        spillRun(run);
+        childTups = null;
+
+        // each pass merges neighbouring runs so that ties stay in input order
+        while (runs.size() > MAX_MERGE_FANIN) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_FANIN) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + MAX_MERGE_FANIN, runs.size()));
+                merged.add(group.size() == 1 ? group.get(0) : merge(group));
+            }
+            runs = merged;
+        }
     }
 
-    @Override
-    public void setChildren(DbIterator[] children) {
-        this.child = children[0];
+    private void spillRun(ArrayList<Tuple> run) throws IOException {
+        if (runs == null) {
+            runs = new ArrayList<SpillFile>();
+        }
+        Collections.sort(run, comparator);
+        SpillFile f = new SpillFile(td);
+        runs.add(f);
+        for (Tuple t : run) {
+            f.add(t);
+        }
     }
 
-}
+    /**
+     * Merge a group of runs into one new run and delete them.
+     */
+    private SpillFile merge(List<SpillFile> group) throws IOException {
+        SpillFile out = new SpillFile(td);
+        LoserTree tree = null;
+        try {
+            tree = new LoserTree(readers(group), comparator);
+            for (Tuple t = tree.next(); t != null; t = tree.next()) {
+                out.add(t);
+            }
+        } catch (IOException e) {
+            out.delete();
+            throw e;
+        } finally {
+            if (tree != null) {
+                tree.close();
+            }
+        }
+        for (SpillFile f : group) {
+            f.delete();
+        }
+        return out;
+    }
+
+    private static List<SpillFile.Reader> readers(List<SpillFile> files) throws IOException {
+        ArrayList<SpillFile.Reader> readers = new ArrayList<SpillFile.Reader>(files.size());
+        for (SpillFile f : files) {
+            readers.add(f.reader());
+        }
+        return readers;
+    }
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    private void startOutput() throws IOException {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs != null) {
+            merger = new LoserTree(readers(runs), comparator);
+        } else {
+            it = childTups.iterator();
+        }
+    }
+
+    private void discardRuns() {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs != null) {
+            for (SpillFile f : runs) {
+                f.delete();
+            }
+            runs = null;
+        }
+    }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child};
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
     }
 
 }
@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageChannel does page-sized I/O against one file through a FileChannel
+ * that stays open for the life of the file, instead of opening a stream
+ * per page.
+ * <p/>
+ * In the default mode every read and write is a single positional
+ * read(ByteBuffer, position) or write(ByteBuffer, position) call, which
+ * does not touch a shared file pointer and so needs no locking.  In mapped
+ * mode the file is mapped into memory and reads are plain memory copies;
+ * this suits read-mostly tables.  The mapping is extended whenever a read
+ * goes past its end, and writes to pages inside the mapping go through it.
+ *
+ * @see HeapFile#setIoMode
+ */
+class PageChannel {
+
+    private final File f;
+    private final boolean mapped;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private volatile MappedByteBuffer map;
+    private boolean closed;
+
+    /**
+     * @param f      the file to read and write
+     * @param mapped true to serve reads from a memory mapping of the file
+     */
+    public PageChannel(File f, boolean mapped) {
+        this.f = f;
+        this.mapped = mapped;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (closed) {
+            throw new IOException("channel closed: " + f);
+        }
+        if (channel == null || !channel.isOpen()) {
+            raf = new RandomAccessFile(f, "rw");
+            channel = raf.getChannel();
+            map = null;
+        }
+        return channel;
+    }
+
+    /**
+     * Read page pgNo into dst, which must be exactly one page long.
+     *
+     * @return false if the file does not contain a whole page at pgNo
+     */
+    public boolean readPage(int pgNo, byte[] dst) throws IOException {
+        long offset = (long) pgNo * dst.length;
+        if (mapped) {
+            MappedByteBuffer m = mapFor(offset + dst.length);
+            if (m == null) {
+                return false;
+            }
+            ByteBuffer view = m.duplicate();
+            view.position((int) offset);
+            view.get(dst);
+            return true;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(dst);
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, offset + buf.position());
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read consecutive pages starting at firstPgNo into dst, one page per
+     * element, using a single read call where possible.
+     *
+     * @return the number of whole pages read, which is less than
+     * dst.length if the file ends first
+     */
+    public int readPages(int firstPgNo, byte[][] dst) throws IOException {
+        if (dst.length == 0) {
+            return 0;
+        }
+        int pageSize = dst[0].length;
+        if (mapped) {
+            int n = 0;
+            while (n < dst.length && readPage(firstPgNo + n, dst[n])) {
+                n++;
+            }
+            return n;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(dst.length * pageSize);
+        long offset = (long) firstPgNo * pageSize;
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0) {
+                break;
+            }
+        }
+        int n = buf.position() / pageSize;
+        buf.flip();
+        for (int i = 0; i < n; i++) {
+            buf.get(dst[i]);
+        }
+        return n;
+    }
+
+    /**
+     * Write src, one page long, as page pgNo, extending the file if needed.
+     */
+    public void writePage(int pgNo, byte[] src) throws IOException {
+        long offset = (long) pgNo * src.length;
+        MappedByteBuffer m = map;
+        if (mapped && m != null && offset + src.length <= m.capacity()) {
+            ByteBuffer view = m.duplicate();
+            view.position((int) offset);
+            view.put(src);
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(src);
+        FileChannel ch = channel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * @return a mapping covering at least the first end bytes of the file,
+     * or null if the file is shorter than that
+     */
+    private MappedByteBuffer mapFor(long end) throws IOException {
+        MappedByteBuffer m = map;
+        if (m != null && end <= m.capacity()) {
+            return m;
+        }
+        synchronized (this) {
+            FileChannel ch = channel();
+            long size = ch.size();
+            if (end > size) {
+                return null;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large to map: " + f);
+            }
+            if (map == null || map.capacity() < size) {
+                map = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Force written pages to the storage device.
+     */
+    public void force() throws IOException {
+        MappedByteBuffer m = map;
+        if (m != null) {
+            m.force();
+        }
+        channel().force(false);
+    }
+
+    /**
+     * Close the file for good; later reads and writes fail.
+     */
+    public synchronized void close() throws IOException {
+        closed = true;
+        map = null;
+        if (raf != null) {
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+}
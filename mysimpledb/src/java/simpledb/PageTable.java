@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * PageTable is the BufferPool's map from PageId to the resident Page.
+ * <p/>
+ * Lookups never take a lock: the table is a ConcurrentHashMap, whose reads
+ * are lock-free, so cache hits on different pages (and on the same page) run
+ * in parallel.  A miss is loaded through a FutureTask registered in a second
+ * map, so that concurrent misses on the same page share one in-flight read
+ * instead of each going to disk.  The read itself runs in the calling thread
+ * without holding any shared monitor.
+ *
+ * @see BufferPool#getPage
+ */
+class PageTable {
+
+    /**
+     * Loads a page that is not resident and installs it in the table.
+     * Called at most once per miss, no matter how many threads are waiting
+     * on that page.
+     */
+    interface Loader {
+        public Page load(PageId pid) throws DbException;
+    }
+
+    private final ConcurrentHashMap<PageId, Page> pages;
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> inFlight;
+
+    public PageTable(int capacity) {
+        pages = new ConcurrentHashMap<PageId, Page>(Math.max(16, capacity * 2));
+        inFlight = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+    }
+
+    /**
+     * @return the resident page for pid, or null on a miss.  Never blocks.
+     */
+    public Page get(PageId pid) {
+        return pages.get(pid);
+    }
+
+    /**
+     * Return the resident page for pid, loading it with loader on a miss.
+     * If another thread is already loading the same page, wait for its
+     * result rather than issuing a second read.
+     */
+    public Page getOrLoad(final PageId pid, final Loader loader) throws DbException {
+        Page page = pages.get(pid);
+        if (page != null) {
+            return page;
+        }
+        FutureTask<Page> task = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() throws DbException {
+                return loader.load(pid);
+            }
+        });
+        FutureTask<Page> running = inFlight.putIfAbsent(pid, task);
+        if (running == null) {
+            // we won the race; re-check in case a load finished between
+            // the lookup above and registering ourselves
+            running = task;
+            try {
+                page = pages.get(pid);
+                if (page != null) {
+                    return page;
+                }
+                task.run();
+            } finally {
+                inFlight.remove(pid, task);
+            }
+        }
+        return await(running);
+    }
+
+    private static Page await(FutureTask<Page> task) throws DbException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof DbException) {
+                        throw (DbException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new DbException("failed to load page: " + cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Install page only if nothing is resident under its id.
+     *
+     * @return the page now resident under that id
+     */
+    public Page putIfAbsent(Page page) {
+        Page prev = pages.putIfAbsent(page.getId(), page);
+        return prev == null ? page : prev;
+    }
+
+    public void put(Page page) {
+        pages.put(page.getId(), page);
+    }
+
+    public Page remove(PageId pid) {
+        return pages.remove(pid);
+    }
+
+    public boolean containsKey(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+    /**
+     * @return a weakly consistent view of the resident page ids
+     */
+    public Set<PageId> keySet() {
+        return pages.keySet();
+    }
+}
@@ -254,18 +254,15 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -277,9 +274,19 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, LogicalPlan.NO_LIMIT);
+    }
+
+    /**
+     * @param limit the statement's LIMIT, or LogicalPlan.NO_LIMIT
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -467,14 +474,36 @@ public class Parser {
         }
     }
 
+    // Zql has no LIMIT, so a trailing "LIMIT n" is cut off before parsing
+    private static final java.util.regex.Pattern LIMIT_CLAUSE = java.util.regex.Pattern
+            .compile("(?is)^(.*?)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+    /**
+     * @return the value of the statement's trailing LIMIT clause, or
+     * LogicalPlan.NO_LIMIT if it has none
+     */
+    static int limitOf(String sql) {
+        java.util.regex.Matcher m = LIMIT_CLAUSE.matcher(sql);
+        return m.matches() ? Integer.parseInt(m.group(2)) : LogicalPlan.NO_LIMIT;
+    }
+
+    /**
+     * @return the statement with any trailing LIMIT clause removed
+     */
+    static String withoutLimit(String sql) {
+        java.util.regex.Matcher m = LIMIT_CLAUSE.matcher(sql);
+        return m.matches() ? m.group(1) + m.group(3) : sql;
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(withoutLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(limitOf(s));
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -507,7 +536,15 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n = is.read(buf); n >= 0; n = is.read(buf)) {
+                text.write(buf, 0, n);
+            }
+            String sql = text.toString("UTF-8");
+            int limit = limitOf(sql);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    withoutLimit(sql).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -521,6 +558,10 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
+                    if (limit != LogicalPlan.NO_LIMIT && !(s instanceof ZQuery)) {
+                        throw new simpledb.ParsingException(
+                                "LIMIT is only supported on SELECT statements.");
+                    }
                     if (s instanceof ZInsert) {
                     	System.out.println("here insert");
                         query = handleInsertStatement((ZInsert) s,
@@ -534,7 +575,7 @@ public class Parser {
                     else if (s instanceof ZQuery){
                     	System.out.println("here query");
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     }
                     else {
                         System.out
@@ -592,7 +633,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = {"select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into"};
+            "insert", "delete", "values", "into", "order by", "limit"};
 
     public static void main(String argv[]) throws IOException {
 
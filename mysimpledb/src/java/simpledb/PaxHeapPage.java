@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PaxHeapPage is a HeapPage that stores its tuples column by column, for
+ * tables whose HeapFile uses {@link HeapFile.PageFormat#PAX}.  It has the
+ * same header and number of slots as a HeapPage, but the rest of the page
+ * is divided into one minipage per field: minipage j holds field j of every
+ * slot, one after the other, each taking the field type's length.
+ * <p/>
+ * A scan that needs only some fields (see {@link SeqScan}) then reads just
+ * their minipages, and a predicate on one field compares values that sit
+ * next to each other instead of a tuple apart.  Tuples are still logged
+ * and compared as a whole; {@link #getSlotData} gathers the fields of a
+ * slot in the order a HeapPage stores them.
+ *
+ * @see HeapPage
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /**
+     * Create a PaxHeapPage from bytes read from disk, or from
+     * {@link HeapPage#createEmptyPageData}.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    @Override
+    HeapPage newPage(byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+
+    /**
+     * @return the offset in data of the minipage of field j
+     */
+    private int minipage(int j) {
+        return headerSize + numSlots * fieldOffsets[j];
+    }
+
+    @Override
+    int fieldOffset(int i, int j) {
+        return minipage(j) + i * td.getFieldType(j).getLen();
+    }
+
+    @Override
+    Tuple readTuple(int i) {
+        return readFieldByField(i);
+    }
+
+    @Override
+    byte[] readSlotBytes(int i) {
+        byte[] b = new byte[td.getSize()];
+        for (int j = 0; j < td.numFields(); j++) {
+            System.arraycopy(data, fieldOffset(i, j), b, fieldOffsets[j], td.getFieldType(j).getLen());
+        }
+        return b;
+    }
+
+    @Override
+    void writeSlotBytes(int i, byte[] b) {
+        for (int j = 0; j < td.numFields(); j++) {
+            System.arraycopy(b, fieldOffsets[j], data, fieldOffset(i, j), td.getFieldType(j).getLen());
+        }
+    }
+}
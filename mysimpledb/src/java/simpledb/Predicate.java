@@ -98,6 +98,17 @@ public class Predicate implements Serializable {
         return false;
     }
 
+    /**
+     * Like {@link #filter(Tuple)}, for the tuple in a used slot of page.
+     * Only the compared field is decoded; int fields are compared in place.
+     */
+    boolean filter(HeapPage page, int slot) {
+        if (operand instanceof IntField && page.td.getFieldType(field) == Type.INT_TYPE) {
+            return IntField.compare(page.getInt(slot, field), op, ((IntField) operand).getValue());
+        }
+        return page.getField(slot, field).compare(op, operand);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
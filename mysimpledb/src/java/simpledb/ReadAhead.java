@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead watches the pages one scan of a HeapFile asks for and, once
+ * the scan looks sequential, reads the next pages into the BufferPool in
+ * the background with one multi-page read per batch.
+ * <p/>
+ * The window starts at {@link #INITIAL_WINDOW} pages and doubles every time
+ * the scan reaches the next batch, up to {@link #MAX_WINDOW} pages or a
+ * quarter of the BufferPool, whichever is smaller; pools of fewer than four
+ * pages get no read-ahead at all.  If the scan finds that
+ * a page it prefetched was evicted before use, it is reading slower than
+ * the pool turns over and the window is halved.  A non-sequential request
+ * resets the window.
+ * <p/>
+ * One ReadAhead belongs to one iterator and is not thread-safe.
+ *
+ * @see HeapFile#readPages
+ * @see BufferPool#prefetch
+ */
+class ReadAhead {
+
+    static final int INITIAL_WINDOW = 4;
+    static final int MAX_WINDOW = 64;
+
+    // shared by all scans; daemon threads so they never keep the JVM alive
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-readahead");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final HeapFile file;
+    private int lastPage = -1;
+    private int window = 0;
+    // pages [prefetchStart, prefetchEnd) have been scheduled for read-ahead
+    private int prefetchStart = 0;
+    private int prefetchEnd = 0;
+    private Future<?> pending;
+
+    public ReadAhead(HeapFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Called by the scan just before it requests page pgNo from the
+     * BufferPool.
+     */
+    public void pageRequested(int pgNo) {
+        boolean sequential = pgNo == lastPage + 1;
+        lastPage = pgNo;
+        int max = maxWindow();
+        if (!sequential || max == 0) {
+            window = 0;
+            prefetchStart = prefetchEnd = pgNo + 1;
+            return;
+        }
+        if (window == 0) {
+            window = Math.min(INITIAL_WINDOW, max);
+        } else if (pgNo >= prefetchStart && pgNo < prefetchEnd && isDone(pending) && !isResident(pgNo)) {
+            // our own read-ahead got evicted before the scan reached it
+            window = Math.max(1, window / 2);
+        }
+
+        // start the next batch once the scan is halfway through this one
+        if (pgNo + window / 2 < prefetchEnd) {
+            return;
+        }
+        if (!isDone(pending)) {
+            // the scan caught up with the I/O: read further ahead next time
+            window = Math.min(window * 2, max);
+            return;
+        }
+        int start = Math.max(prefetchEnd, pgNo + 1);
+        int count = Math.min(window, file.numPages() - start);
+        if (count > 0) {
+            pending = prefetcher.submit(new Batch(file, start, count));
+            prefetchStart = start;
+            prefetchEnd = start + count;
+        }
+        window = Math.min(window * 2, max);
+    }
+
+    private static boolean isDone(Future<?> f) {
+        return f == null || f.isDone();
+    }
+
+    private boolean isResident(int pgNo) {
+        return Database.getBufferPool().isResident(new HeapPageId(file.getId(), pgNo));
+    }
+
+    private static int maxWindow() {
+        return Math.min(MAX_WINDOW, Database.getBufferPool().capacity() / 4);
+    }
+
+    /**
+     * Reads one batch of pages and offers them to the BufferPool.
+     */
+    private static class Batch implements Runnable {
+        private final HeapFile file;
+        private final int start;
+        private final int count;
+
+        Batch(HeapFile file, int start, int count) {
+            this.file = file;
+            this.start = start;
+            this.count = count;
+        }
+
+        public void run() {
+            BufferPool pool = Database.getBufferPool();
+            long version = file.writeVersion();
+            if (version < 0) {
+                return;
+            }
+            try {
+                List<Page> pages = file.readPages(start, count);
+                for (Page p : pages) {
+                    pool.prefetch(file, version, p);
+                }
+            } catch (Exception e) {
+                // read-ahead is only a hint; the scan will read the page itself
+            }
+        }
+    }
+}
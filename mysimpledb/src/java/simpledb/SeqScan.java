@@ -17,6 +17,13 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator i;
+    // applied by the HeapFile iterator, before tuples are built; their
+    // fields are indexes into getTupleDesc()
+    private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    // the fields of the table this scan returns, or null for all of them
+    private final int[] columns;
+    // true if the file's iterator returns every field, so next() projects
+    private boolean projectTuples;
 
 
     /**
@@ -33,9 +40,23 @@ public class SeqScan implements DbIterator {
      *                   tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some fields of the table.
+     * Tuples hold just those fields, in the given order, as described by
+     * {@link #getTupleDesc}; on a HeapFile the other fields are never
+     * decoded.
+     *
+     * @param columns indexes of the fields of the table to return, or null
+     *                for all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         this.tid = tid;
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.columns = columns;
     }
 
     /**
@@ -57,11 +78,50 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Return only the tuples that pass p.  Used by {@link Filter}, so that
+     * pages are filtered before tuples are decoded.
+     *
+     * @return false if this scan cannot apply p, because its table is not
+     * a HeapFile
+     */
+    boolean pushDown(Predicate p) {
+    	if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+    		return false;
+    	}
+    	if (!predicates.contains(p)) {
+    		predicates.add(p);
+    	}
+    	return true;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
-    	this.i = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+    	DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+    	if (file instanceof HeapFile) {
+    		this.i = ((HeapFile) file).iterator(tid, tablePredicates(), columns);
+    		projectTuples = false;
+    	} else {
+    		this.i = file.iterator(tid);
+    		projectTuples = columns != null;
+    	}
     	this.i.open();
     }
 
+    /**
+     * @return the pushed-down predicates, on fields of the table rather
+     * than of the returned tuples
+     */
+    private List<Predicate> tablePredicates() {
+    	if (columns == null) {
+    		return predicates;
+    	}
+    	List<Predicate> preds = new ArrayList<Predicate>(predicates.size());
+    	for (Predicate p : predicates) {
+    		preds.add(new Predicate(columns[p.getField()], p.getOp(), p.getOperand()));
+    	}
+    	return preds;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -74,6 +134,9 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc() {
     	DbFile file = Database.getCatalog().getDatabaseFile(tableid);
     	TupleDesc td = file.getTupleDesc();
+    	if (columns != null) {
+    		td = HeapFile.project(td, columns);
+    	}
     	String alias = getAlias();
     	int numTuples = td.numFields();
     	int k;
@@ -104,6 +167,14 @@ public class SeqScan implements DbIterator {
     	}
     	
     	Tuple tup = i.next();
+        if (tup != null && projectTuples) {
+        	Tuple projected = new Tuple(getTupleDesc());
+        	projected.setRecordId(tup.getRecordId());
+        	for (int k = 0; k < columns.length; k++) {
+        		projected.setField(k, tup.getField(columns[k]));
+        	}
+        	tup = projected;
+        }
         if(tup != null){
                 return tup;
         } 
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * SlotLogRecord is the body of a physiological log record: a change to one
+ * slot of one HeapPage, instead of a whole before and after image of the
+ * page.
+ * <p/>
+ * <ul>
+ * <li> SLOT_INSERT fills an empty slot; it holds the new tuple.
+ * <li> SLOT_DELETE empties a slot; it holds the old tuple, for undo.
+ * <li> FIELD_UPDATE changes a used slot; it holds the changed byte range
+ * of the slot, before and after.  The two may differ in length on pages
+ * with variable-length records (see {@link SlottedHeapPage}).
+ * </ul>
+ * <p/>
+ * Each sets the slot to a value rather than changing it relative to what
+ * is there, so applying a record twice does no harm.  On disk the body is
+ * the table id, page number and slot, followed by
+ * <ul>
+ * <li> SLOT_INSERT, SLOT_DELETE: the tuple length and bytes
+ * <li> FIELD_UPDATE: the offset in the slot, then the length and bytes of
+ * the old and of the new range
+ * </ul>
+ *
+ * @see LogFile#logWrite
+ */
+class SlotLogRecord {
+
+    final int type;
+    final HeapPageId pid;
+    final int slot;
+    private final int offset;
+    private final byte[] before;
+    private final byte[] after;
+
+    private SlotLogRecord(int type, HeapPageId pid, int slot, int offset,
+                          byte[] before, byte[] after) {
+        this.type = type;
+        this.pid = pid;
+        this.slot = slot;
+        this.offset = offset;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @return true if records of this type have a SlotLogRecord body
+     */
+    static boolean isSlotRecord(int type) {
+        return type == LogType.SLOT_INSERT_RECORD || type == LogType.SLOT_DELETE_RECORD
+                || type == LogType.FIELD_UPDATE_RECORD;
+    }
+
+    /**
+     * The record that takes slot from old to now, as returned by
+     * {@link HeapPage#getSlotData}.
+     *
+     * @return the record, or null if old and now are the same
+     */
+    static SlotLogRecord diff(HeapPageId pid, int slot, byte[] old, byte[] now) {
+        if (Arrays.equals(old, now)) {
+            return null;
+        }
+        if (old == null) {
+            return new SlotLogRecord(LogType.SLOT_INSERT_RECORD, pid, slot, 0, null, now);
+        }
+        if (now == null) {
+            return new SlotLogRecord(LogType.SLOT_DELETE_RECORD, pid, slot, 0, old, null);
+        }
+        int common = Math.min(old.length, now.length);
+        int from = 0;
+        while (from < common && old[from] == now[from]) {
+            from++;
+        }
+        // length of the common suffix, not overlapping the prefix
+        int tail = 0;
+        while (tail < common - from && old[old.length - 1 - tail] == now[now.length - 1 - tail]) {
+            tail++;
+        }
+        return new SlotLogRecord(LogType.FIELD_UPDATE_RECORD, pid, slot, from,
+                Arrays.copyOfRange(old, from, old.length - tail),
+                Arrays.copyOfRange(now, from, now.length - tail));
+    }
+
+    /**
+     * @return the record that undoes this one
+     */
+    SlotLogRecord inverse() {
+        switch (type) {
+            case LogType.SLOT_INSERT_RECORD:
+                return new SlotLogRecord(LogType.SLOT_DELETE_RECORD, pid, slot, 0, after, null);
+            case LogType.SLOT_DELETE_RECORD:
+                return new SlotLogRecord(LogType.SLOT_INSERT_RECORD, pid, slot, 0, null, before);
+            default:
+                return new SlotLogRecord(type, pid, slot, offset, after, before);
+        }
+    }
+
+    /**
+     * Apply this record to page.
+     */
+    void redo(HeapPage page) {
+        switch (type) {
+            case LogType.SLOT_INSERT_RECORD:
+                page.setSlotData(slot, after);
+                break;
+            case LogType.SLOT_DELETE_RECORD:
+                page.setSlotData(slot, null);
+                break;
+            default:
+                byte[] old = page.getSlotData(slot);
+                byte[] data = new byte[old.length - before.length + after.length];
+                System.arraycopy(old, 0, data, 0, offset);
+                System.arraycopy(after, 0, data, offset, after.length);
+                System.arraycopy(old, offset + before.length, data, offset + after.length,
+                        old.length - offset - before.length);
+                page.setSlotData(slot, data);
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(pid.getTableId());
+        out.writeInt(pid.pageNumber());
+        out.writeInt(slot);
+        switch (type) {
+            case LogType.SLOT_INSERT_RECORD:
+                writeBytes(out, after);
+                break;
+            case LogType.SLOT_DELETE_RECORD:
+                writeBytes(out, before);
+                break;
+            default:
+                out.writeInt(offset);
+                writeBytes(out, before);
+                writeBytes(out, after);
+        }
+    }
+
+    private static void writeBytes(DataOutput out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(DataInput in, int len) throws IOException {
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * Read the body of a record of the given type, as written by write().
+     */
+    static SlotLogRecord read(int type, DataInput in) throws IOException {
+        HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+        int slot = in.readInt();
+        switch (type) {
+            case LogType.SLOT_INSERT_RECORD:
+                return new SlotLogRecord(type, pid, slot, 0, null, readBytes(in, in.readInt()));
+            case LogType.SLOT_DELETE_RECORD:
+                return new SlotLogRecord(type, pid, slot, 0, readBytes(in, in.readInt()), null);
+            case LogType.FIELD_UPDATE_RECORD:
+                int offset = in.readInt();
+                byte[] before = readBytes(in, in.readInt());
+                return new SlotLogRecord(type, pid, slot, offset, before, readBytes(in, in.readInt()));
+            default:
+                throw new IOException("not a slot record type: " + type);
+        }
+    }
+
+    public String toString() {
+        String op = type == LogType.SLOT_INSERT_RECORD ? "INSERT"
+                : type == LogType.SLOT_DELETE_RECORD ? "DELETE" : "FIELD_UPDATE";
+        return op + " pid=" + pid + " slot=" + slot;
+    }
+}
@@ -0,0 +1,278 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a HeapPage that stores variable-length records, for
+ * tables whose HeapFile uses {@link HeapFile.PageFormat#SLOTTED}.  Strings
+ * take their length plus 4 bytes instead of {@link Type#STRING_LEN} + 4, so
+ * tables of short strings fit many more tuples per page.
+ * <p/>
+ * The page starts with two unsigned shorts: the number of entries in the
+ * slot directory, and the offset where the records start (0 meaning the end
+ * of the page).  The directory follows, one entry per slot holding the
+ * offset and length of the slot's record, or 0 and 0 for an empty slot.
+ * Records are packed at the end of the page and grow toward the directory.
+ * In a record, an int takes 4 bytes and a string its length as an int
+ * followed by its bytes.
+ * <p/>
+ * Slots keep their number for as long as they are used, so RecordIds and
+ * log records stay valid.  The page is compacted whenever a record is
+ * removed or replaced, so the free space is always one gap between the
+ * directory and the records.  Pages must not be larger than 64KB.
+ *
+ * @see HeapPage
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    // slot count and start of the records
+    static final int PAGE_HEADER_SIZE = 4;
+    // offset and length of one record
+    static final int ENTRY_SIZE = 4;
+
+    /**
+     * Create a SlottedHeapPage from bytes read from disk, or from
+     * {@link HeapPage#createEmptyPageData}.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /**
+     * @return the most tuples that can fit on a page, all of the smallest
+     * size
+     */
+    @Override
+    int getNumTuples() {
+        return (BufferPool.getPageSize() - PAGE_HEADER_SIZE) / (minRecordSize() + ENTRY_SIZE);
+    }
+
+    @Override
+    int getHeaderSize() {
+        return PAGE_HEADER_SIZE;
+    }
+
+    /**
+     * @return the size of a record whose strings are all empty
+     */
+    private int minRecordSize() {
+        return td.numFields() * 4;
+    }
+
+    @Override
+    HeapPage newPage(byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    private int getShort(int off) {
+        return (data[off] & 0xff) << 8 | (data[off + 1] & 0xff);
+    }
+
+    private void putShort(int off, int value) {
+        data[off] = (byte) (value >> 8);
+        data[off + 1] = (byte) value;
+    }
+
+    private int readInt(int off) {
+        return (data[off] & 0xff) << 24 | (data[off + 1] & 0xff) << 16
+                | (data[off + 2] & 0xff) << 8 | (data[off + 3] & 0xff);
+    }
+
+    private int slotCount() {
+        return getShort(0);
+    }
+
+    private int recordsStart() {
+        int start = getShort(2);
+        return start == 0 ? BufferPool.getPageSize() : start;
+    }
+
+    private int entry(int i) {
+        return PAGE_HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    /**
+     * @return the bytes between the directory and the records
+     */
+    private int freeBytes() {
+        return recordsStart() - entry(slotCount());
+    }
+
+    @Override
+    int slotOffset(int i) {
+        return getShort(entry(i));
+    }
+
+    @Override
+    int slotLength(int i) {
+        return getShort(entry(i) + 2);
+    }
+
+    @Override
+    int fieldOffset(int i, int j) {
+        int off = slotOffset(i);
+        for (int k = 0; k < j; k++) {
+            off += td.getFieldType(k) == Type.INT_TYPE ? 4 : 4 + readInt(off);
+        }
+        return off;
+    }
+
+    @Override
+    Tuple readTuple(int i) {
+        return readFieldByField(i);
+    }
+
+    /**
+     * @return t as a record of this page
+     */
+    private byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    String s = ((StringField) f).getValue();
+                    dos.writeInt(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    f.serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i < slotCount() && slotOffset(i) != 0;
+    }
+
+    @Override
+    int[] usedSlots() {
+        int n = slotCount();
+        int[] used = new int[n];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            if (isSlotUsed(i)) {
+                used[j++] = i;
+            }
+        }
+        return Arrays.copyOf(used, j);
+    }
+
+    /**
+     * Returns the number of tuples of the smallest size that still fit on
+     * this page.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int n = slotCount();
+        int used = usedSlots().length;
+        int freeEntries = n - used;
+        int free = freeBytes();
+        int min = minRecordSize();
+        int fit;
+        if (free >= freeEntries * min) {
+            fit = freeEntries + (free - freeEntries * min) / (min + ENTRY_SIZE);
+        } else {
+            fit = free / Math.max(min, 1);
+        }
+        return Math.min(fit, numSlots - used);
+    }
+
+    /**
+     * @return the slot an insert would use
+     */
+    private int freeSlot() {
+        int n = slotCount();
+        for (int i = 0; i < n; i++) {
+            if (!isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    private boolean fits(int len) {
+        int slot = freeSlot();
+        if (slot < slotCount()) {
+            return len <= freeBytes();
+        }
+        return slot < numSlots && len + ENTRY_SIZE <= freeBytes();
+    }
+
+    @Override
+    synchronized boolean hasRoomFor(Tuple t) {
+        return fits(encode(t).length);
+    }
+
+    @Override
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        byte[] record = encode(t);
+        if (!fits(record.length)) {
+            throw new DbException("page is full");
+        }
+        int slot = freeSlot();
+        setSlotData(slot, record);
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Remove the record of used slot i, moving the records before it up
+     * over the gap.
+     */
+    private void removeRecord(int i) {
+        int off = slotOffset(i);
+        int len = slotLength(i);
+        int start = recordsStart();
+        System.arraycopy(data, start, data, start + len, off - start);
+        Arrays.fill(data, start, start + len, (byte) 0);
+        for (int k = 0; k < slotCount(); k++) {
+            int other = slotOffset(k);
+            if (other != 0 && other < off) {
+                putShort(entry(k), other + len);
+            }
+        }
+        putShort(entry(i), 0);
+        putShort(entry(i) + 2, 0);
+        putShort(2, start + len);
+    }
+
+    @Override
+    synchronized void setSlotData(int i, byte[] record) {
+        own();
+        tuples[i] = null;
+        dirtySlots.set(i);
+        if (isSlotUsed(i)) {
+            removeRecord(i);
+        }
+        int n = slotCount();
+        if (record == null) {
+            // drop empty entries at the end of the directory
+            while (n > 0 && slotOffset(n - 1) == 0) {
+                n--;
+            }
+            putShort(0, n);
+            return;
+        }
+        if (i >= n) {
+            // entries past the directory are zero, so empty
+            putShort(0, i + 1);
+        }
+        if (record.length > freeBytes()) {
+            throw new IllegalStateException("no room for slot " + i + " of " + pid);
+        }
+        int off = recordsStart() - record.length;
+        System.arraycopy(record, 0, data, off, record.length);
+        putShort(2, off);
+        putShort(entry(i), off);
+        putShort(entry(i) + 2, record.length);
+    }
+}
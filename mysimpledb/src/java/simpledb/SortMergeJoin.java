@@ -0,0 +1,329 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two inputs on an ordered predicate
+ * (=, &lt;, &lt;=, &gt;, &gt;=) by sorting them on their join fields with
+ * the external sort in {@link OrderBy}, so neither input has to fit in
+ * memory.
+ * <p/>
+ * For = both inputs are sorted and merged; only the run of inner tuples
+ * sharing the current key is buffered, so memory is bounded by the largest
+ * group of duplicate join keys rather than by the input sizes.
+ * <p/>
+ * For the range predicates the inner tuples matching one outer value form
+ * a prefix of the inner input sorted ascending (&gt;, &gt;=) or descending
+ * (&lt;, &lt;=).  The sorted inner input is read once and kept, its first
+ * maxTuplesInMemory tuples in memory and the rest in a single spill file.
+ * The outer input is sorted in the same direction and read in blocks of
+ * maxTuplesInMemory tuples; the last tuple of a block has the longest
+ * prefix, and each inner tuple in it matches a suffix of the block.  So
+ * each block costs one sequential read of that prefix, with no re-merging
+ * of sort runs.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final TupleDesc td;
+    private final int maxTuplesInMemory;
+
+    private DbIterator outer;
+    private DbIterator inner;
+    private Tuple outerTup;
+    // = : inner tuples whose key equals groupKey, and the first inner tuple past them
+    private ArrayList<Tuple> group;
+    private Field groupKey;
+    private int groupIdx;
+    private Tuple innerNext;
+    // range predicates: the sorted inner input, its head in memory and the rest spilled
+    private ArrayList<Tuple> innerHead;
+    private SpillFile innerTail;
+    // the current block of sorted outer tuples, and the pass over the inner
+    // prefix it matches: block[first, size) all match innerTup
+    private ArrayList<Tuple> block;
+    private boolean passing;
+    private int innerPos;
+    private SpillFile.Reader tailReader;
+    private Tuple innerTup;
+    private int first;
+    private int blockIdx;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not an ordering
+     *                                  comparison or equality
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, OrderBy.DEFAULT_MAX_TUPLES_IN_MEMORY);
+    }
+
+    /**
+     * @param maxTuplesInMemory the most tuples each input sort keeps in memory
+     *                          before spilling runs to disk; for range
+     *                          predicates also the outer block size and the
+     *                          number of inner tuples kept in memory
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                         int maxTuplesInMemory) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.maxTuplesInMemory = Math.max(1, maxTuplesInMemory);
+    }
+
+    /**
+     * @return true if SortMergeJoin can evaluate predicates with this operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        Predicate.Op op = p.getOperator();
+        boolean asc = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+        outer = sorter(child1, p.getField1(), asc);
+        inner = sorter(child2, p.getField2(), asc);
+        outer.open();
+        inner.open();
+        group = new ArrayList<Tuple>();
+        block = new ArrayList<Tuple>();
+        if (op != Predicate.Op.EQUALS) {
+            materializeInner();
+        }
+        super.open();
+        restart();
+    }
+
+    public void close() {
+        super.close();
+        endPass();
+        if (innerTail != null) {
+            innerTail.delete();
+        }
+        if (outer != null) {
+            outer.close();
+        }
+        if (inner != null) {
+            inner.close();
+        }
+        outer = null;
+        inner = null;
+        group = null;
+        block = null;
+        innerHead = null;
+        innerTail = null;
+        outerTup = innerNext = innerTup = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        if (inner != null) {
+            inner.rewind();
+        }
+        restart();
+    }
+
+    private OrderBy sorter(DbIterator child, int field, boolean asc) {
+        return new OrderBy(new int[]{field}, new boolean[]{asc}, child, maxTuplesInMemory);
+    }
+
+    /**
+     * Read the sorted inner input into innerHead and innerTail, then let go
+     * of the sort and its runs.
+     */
+    private void materializeInner() throws DbException, TransactionAbortedException {
+        innerHead = new ArrayList<Tuple>();
+        try {
+            while (inner.hasNext()) {
+                Tuple t = inner.next();
+                if (innerHead.size() < maxTuplesInMemory) {
+                    innerHead.add(t);
+                    continue;
+                }
+                if (innerTail == null) {
+                    innerTail = new SpillFile(child2.getTupleDesc());
+                }
+                innerTail.add(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("SortMergeJoin could not spill: " + e.getMessage());
+        }
+        inner.close();
+        inner = null;
+    }
+
+    private void restart() throws DbException, TransactionAbortedException {
+        outerTup = null;
+        group.clear();
+        groupKey = null;
+        groupIdx = 0;
+        innerNext = inner == null ? null : nextInner();
+        endPass();
+        block.clear();
+    }
+
+    private Tuple nextInner() throws DbException, TransactionAbortedException {
+        return inner.hasNext() ? inner.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return p.getOperator() == Predicate.Op.EQUALS ? fetchEquals() : fetchRange();
+    }
+
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outerTup != null && groupIdx < group.size()) {
+                return Tuple.merge(outerTup, group.get(groupIdx++), td);
+            }
+            if (!outer.hasNext()) {
+                return null;
+            }
+            outerTup = outer.next();
+            Field v = outerTup.getField(p.getField1());
+            groupIdx = 0;
+            if (groupKey != null && groupKey.compare(Predicate.Op.EQUALS, v)) {
+                continue;
+            }
+            group.clear();
+            groupKey = null;
+            while (innerNext != null
+                    && innerNext.getField(p.getField2()).compare(Predicate.Op.LESS_THAN, v)) {
+                innerNext = nextInner();
+            }
+            while (innerNext != null
+                    && innerNext.getField(p.getField2()).compare(Predicate.Op.EQUALS, v)) {
+                group.add(innerNext);
+                innerNext = nextInner();
+            }
+            if (!group.isEmpty()) {
+                groupKey = v;
+            }
+        }
+    }
+
+    private Tuple fetchRange() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (innerTup != null && blockIdx < block.size()) {
+                return Tuple.merge(block.get(blockIdx++), innerTup, td);
+            }
+            innerTup = passing ? nextInPass() : null;
+            if (innerTup != null && p.filter(block.get(block.size() - 1), innerTup)) {
+                // later inner tuples match fewer outer tuples, never more
+                while (!p.filter(block.get(first), innerTup)) {
+                    first++;
+                }
+                blockIdx = first;
+                continue;
+            }
+            endPass();
+            if (innerHead.isEmpty() || !nextBlock()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Read the next block of sorted outer tuples and start a pass over the
+     * inner input for it.
+     *
+     * @return false if the outer input is exhausted
+     */
+    private boolean nextBlock() throws TransactionAbortedException, DbException {
+        block.clear();
+        while (block.size() < maxTuplesInMemory && outer.hasNext()) {
+            block.add(outer.next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        passing = true;
+        innerPos = 0;
+        first = 0;
+        return true;
+    }
+
+    private Tuple nextInPass() throws DbException {
+        if (innerPos < innerHead.size()) {
+            return innerHead.get(innerPos++);
+        }
+        if (innerTail == null) {
+            return null;
+        }
+        try {
+            if (tailReader == null) {
+                tailReader = innerTail.reader();
+            }
+            return tailReader.next();
+        } catch (IOException e) {
+            throw new DbException("SortMergeJoin could not read its spill file: " + e.getMessage());
+        }
+    }
+
+    private void endPass() {
+        if (tailReader != null) {
+            tailReader.close();
+            tailReader = null;
+        }
+        passing = false;
+        innerTup = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * SpillFile is a temporary, append-only run of tuples that operators write
+ * when their input does not fit in their memory budget (hash join
+ * partitions, sort runs, aggregation partitions).
+ * <p/>
+ * Tuples are stored back to back in the same fixed-width field encoding
+ * HeapPage uses on disk, through buffered streams.  Spill files are private
+ * to one operator, so unlike a HeapFile they are not registered in the
+ * Catalog and do not go through the BufferPool or the LockManager.
+ * <p/>
+ * Write all tuples with {@link #add}, then read them back any number of
+ * times with {@link #reader}.  {@link #delete} removes the file.
+ */
+class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb-spill", ".dat");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Append a tuple.  Not allowed once a reader has been opened.
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("spill file already sealed for reading");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(out);
+        }
+        size++;
+    }
+
+    /**
+     * @return the number of tuples written
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a new reader positioned at the first tuple
+     */
+    public Reader reader() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * @return true once a reader has been opened and no more tuples can be
+     * added
+     */
+    public boolean isSealed() {
+        return out == null;
+    }
+
+    /**
+     * Partition number, in [0, partitions), for a key hash when an operator
+     * spills by hash partitioning.  Each level of repartitioning passes a different depth,
+     * which mixes in a different seed so that a skewed partition actually
+     * splits.
+     */
+    static int partitionOf(int hash, int depth, int partitions) {
+        int h = hash ^ (depth * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % partitions;
+    }
+
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // we are throwing the data away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * Sequential reader over the tuples of a SpillFile.
+     */
+    class Reader {
+        private DataInputStream in;
+        private int remaining = size;
+
+        Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * @return the next tuple, or null after the last one
+         */
+        public Tuple next() throws IOException {
+            if (remaining == 0) {
+                close();
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new IOException("corrupt spill file " + file + ": " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // read-only stream, nothing to lose
+                }
+                in = null;
+            }
+        }
+    }
+}
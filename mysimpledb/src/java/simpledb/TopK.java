@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopK is an operator that implements ORDER BY ... LIMIT k.  It reads its
+ * child once, keeping only the best k tuples seen so far in a bounded heap
+ * whose root is the worst of them, so memory is O(k) and each tuple costs
+ * O(log k) instead of sorting the whole input.
+ * <p/>
+ * Like {@link OrderBy}, tuples with equal sort keys come out in input order.
+ */
+public class TopK extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int limit;
+    private final TupleComparator comparator;
+
+    private ArrayList<Tuple> top;
+    private Iterator<Tuple> it;
+
+    /**
+     * @param orderbyFields the fields to sort on, most significant first
+     * @param asc           for each field, true if its sort order is ascending
+     * @param limit         the number of tuples to return
+     * @param child         the tuples to sort
+     */
+    public TopK(int[] orderbyFields, boolean[] asc, int limit, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort order per ORDER BY field");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative LIMIT " + limit);
+        }
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
+        this.child = child;
+        this.comparator = new TupleComparator(this.orderByFields, this.asc);
+    }
+
+    /**
+     * @return all ORDER BY fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return the sort order of each ORDER BY field
+     */
+    public boolean[] getAscOrders() {
+        return asc.clone();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        top = selectTop();
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        it = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    private ArrayList<Tuple> selectTop() throws DbException, TransactionAbortedException {
+        if (limit == 0) {
+            return new ArrayList<Tuple>();
+        }
+        // worst kept tuple at the root; later arrivals rank after equal earlier ones
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(Math.min(limit, 1024) + 1,
+                Collections.reverseOrder());
+        long seq = 0;
+        while (child.hasNext()) {
+            Ranked r = new Ranked(child.next(), seq++);
+            if (heap.size() < limit) {
+                heap.add(r);
+            } else if (r.compareTo(heap.peek()) < 0) {
+                heap.poll();
+                heap.add(r);
+            }
+        }
+        Ranked[] sorted = heap.toArray(new Ranked[heap.size()]);
+        Arrays.sort(sorted);
+        ArrayList<Tuple> result = new ArrayList<Tuple>(sorted.length);
+        for (Ranked r : sorted) {
+            result.add(r.tuple);
+        }
+        return result;
+    }
+
+    private class Ranked implements Comparable<Ranked> {
+        final Tuple tuple;
+        final long seq;
+
+        Ranked(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+
+        public int compareTo(Ranked o) {
+            int c = comparator.compare(tuple, o.tuple);
+            if (c != 0) {
+                return c;
+            }
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -8,11 +8,36 @@ import java.io.*;
  */
 
 public class Transaction {
+    /**
+     * How a transaction is isolated from concurrent ones.  LOCKING takes
+     * page locks as it goes; SNAPSHOT reads a snapshot as of its start,
+     * takes no locks and may not write; OPTIMISTIC reads a snapshot, buffers
+     * its writes privately and is validated when it commits, which suits
+     * short update transactions that rarely conflict.
+     */
+    public enum Concurrency {
+        LOCKING, SNAPSHOT, OPTIMISTIC
+    }
+
     private final TransactionId tid;
+    private final Concurrency concurrency;
     volatile boolean started = false;
 
     public Transaction() {
+        this(Concurrency.LOCKING);
+    }
+
+    /**
+     * @param readOnly if true, the transaction reads a snapshot as of its
+     *                 start, takes no locks and may not write
+     */
+    public Transaction(boolean readOnly) {
+        this(readOnly ? Concurrency.SNAPSHOT : Concurrency.LOCKING);
+    }
+
+    public Transaction(Concurrency concurrency) {
         tid = new TransactionId();
+        this.concurrency = concurrency;
     }
 
     /**
@@ -20,6 +45,11 @@ public class Transaction {
      */
     public void start() {
         started = true;
+        if (concurrency == Concurrency.SNAPSHOT) {
+            Database.getBufferPool().beginSnapshot(tid);
+        } else if (concurrency == Concurrency.OPTIMISTIC) {
+            Database.getBufferPool().beginOptimistic(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -31,10 +61,21 @@ public class Transaction {
         return tid;
     }
 
+    public boolean isReadOnly() {
+        return concurrency == Concurrency.SNAPSHOT;
+    }
+
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
     /**
      * Finish the transaction
+     *
+     * @throws TransactionAbortedException if an optimistic transaction
+     *                                     fails validation; it is aborted
      */
-    public void commit() throws IOException {
+    public void commit() throws IOException, TransactionAbortedException {
         transactionComplete(false);
     }
 
@@ -42,21 +83,35 @@ public class Transaction {
      * Finish the transaction
      */
     public void abort() throws IOException {
-        transactionComplete(true);
+        complete(true);
     }
 
     /**
-     * Handle the details of transaction commit / abort
+     * Handle the details of transaction commit / abort.  An optimistic
+     * transaction is validated before it commits, and aborted instead if
+     * that fails.
      */
-    public void transactionComplete(boolean abort) throws IOException {
+    public void transactionComplete(boolean abort) throws IOException, TransactionAbortedException {
+        if (started && !abort && concurrency == Concurrency.OPTIMISTIC) {
+            try {
+                Database.getBufferPool().validateOptimistic(tid);
+            } catch (TransactionAbortedException e) {
+                complete(true);
+                throw e;
+            }
+        }
+        complete(abort);
+    }
+
+    private void complete(boolean abort) throws IOException {
 
         if (started) {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);  // force policy, drop this as challenge problem
+                //log the dirty pages; they are written out after commit
+                Database.getBufferPool().logPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -36,7 +36,7 @@ public class Tuple implements Serializable {
         		fields[i] = new IntField(-1);
         	}
         	else {
-        		fields[i] = new StringField(null, td.getFieldType(i).getLen());
+        		fields[i] = new StringField("", td.getFieldType(i).getLen());
         	}
         	i++;
         	it.next();
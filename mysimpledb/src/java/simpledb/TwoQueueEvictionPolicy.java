@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scan-resistant 2Q eviction (Johnson and Shasha).  Newly loaded pages go
+ * into a FIFO queue, A1in.  Pages evicted from A1in are remembered, by id
+ * only, in a ghost queue A1out.  A page that is loaded again while it is
+ * still in A1out has proven it is reused and goes into Am, an LRU list.
+ * <p/>
+ * A large sequential scan only ever cycles through A1in, so the index and
+ * dimension pages in Am stay resident.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+    private final LinkedHashMap<PageId, Boolean> a1in = new LinkedHashMap<PageId, Boolean>();
+    private final LinkedHashMap<PageId, Boolean> a1out;
+    private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    /**
+     * Size A1in at a quarter of the pool and A1out at half of it, the
+     * settings recommended in the 2Q paper.
+     *
+     * @param capacity number of pages in the buffer pool
+     */
+    public TwoQueueEvictionPolicy(int capacity) {
+        this(Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param kin  target number of resident pages in A1in
+     * @param kout number of evicted page ids remembered in A1out
+     */
+    public TwoQueueEvictionPolicy(int kin, final int kout) {
+        this.kin = kin;
+        this.kout = kout;
+        this.a1out = new LinkedHashMap<PageId, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > kout;
+            }
+        };
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (am.containsKey(pid) || a1in.containsKey(pid)) {
+            pageAccessed(pid);
+        } else if (a1out.remove(pid) != null) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        // a hit in A1in is deliberately ignored: it is most likely a
+        // correlated reference from the same scan
+        am.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = LruKEvictionPolicy.removeFirstEvictable(a1in.keySet().iterator(), evictable);
+            if (victim != null) {
+                a1out.put(victim, Boolean.TRUE);
+                return victim;
+            }
+        }
+        victim = LruKEvictionPolicy.removeFirstEvictable(am.keySet().iterator(), evictable);
+        if (victim == null) {
+            victim = LruKEvictionPolicy.removeFirstEvictable(a1in.keySet().iterator(), evictable);
+            if (victim != null) {
+                a1out.put(victim, Boolean.TRUE);
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+/**
+ * VersionStore keeps the recent committed versions of pages, so that
+ * read-only transactions can read a consistent snapshot without taking
+ * locks.
+ * <p/>
+ * Every commit gets a timestamp, and a snapshot is the timestamp of the last
+ * commit when it began; it sees exactly the versions committed at or before
+ * it.  When a transaction commits, each page it dirtied gets a new version at
+ * the head of the page's chain, on top of the version it replaces (the
+ * page's before-image).  This happens before the pages are written out, so
+ * a snapshot never finds a newer commit on disk or in a before-image than
+ * in the chain.
+ * <p/>
+ * A page without a chain has not changed since before every active
+ * snapshot, so its current committed image (before-image or disk copy) is
+ * the version to read.  Versions no active snapshot can see are dropped
+ * when a commit finishes or a snapshot ends, and a chain left with only
+ * the current version is dropped altogether.
+ *
+ * @see BufferPool#beginSnapshot
+ */
+class VersionStore {
+
+    private static class Version {
+        final long commitTs;
+        final Page page;
+        Version older;
+
+        Version(long commitTs, Page page, Version older) {
+            this.commitTs = commitTs;
+            this.page = page;
+            this.older = older;
+        }
+    }
+
+    private long lastCommit = 0;
+    private final HashMap<TransactionId, Long> snapshots = new HashMap<TransactionId, Long>();
+    private final HashMap<PageId, Version> chains = new HashMap<PageId, Version>();
+    // pages of commits that are published but not yet written out
+    private final HashMap<TransactionId, List<PageId>> committing = new HashMap<TransactionId, List<PageId>>();
+    private final HashSet<PageId> pending = new HashSet<PageId>();
+
+    /**
+     * Start a snapshot for tid as of the last commit.
+     */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, lastCommit);
+    }
+
+    /**
+     * @return the snapshot of tid, or null if tid is not reading one
+     */
+    public synchronized Long snapshotOf(TransactionId tid) {
+        return snapshots.get(tid);
+    }
+
+    /**
+     * End tid's snapshot and drop the versions only it could see.
+     *
+     * @return true if tid had a snapshot
+     */
+    public synchronized boolean endSnapshot(TransactionId tid) {
+        if (snapshots.remove(tid) == null) {
+            return false;
+        }
+        long watermark = watermark();
+        for (PageId pid : new ArrayList<PageId>(chains.keySet())) {
+            trim(pid, watermark);
+        }
+        return true;
+    }
+
+    /**
+     * Make the pages tid dirtied visible to snapshots taken from now on, as
+     * one commit.  Must be called before the pages are written out or their
+     * before-images are reset; calling it again for the same commit does
+     * nothing.
+     */
+    public synchronized void publish(TransactionId tid, List<Page> pages) throws DbException {
+        if (committing.containsKey(tid)) {
+            return;
+        }
+        long commitTs = ++lastCommit;
+        ArrayList<PageId> pids = new ArrayList<PageId>(pages.size());
+        for (Page page : pages) {
+            PageId pid = page.getId();
+            Version head = chains.get(pid);
+            if (head == null) {
+                // committed before every snapshot that is still running
+                head = new Version(0, page.getBeforeImage(), null);
+            }
+            chains.put(pid, new Version(commitTs, copyOf(page), head));
+            pids.add(pid);
+            pending.add(pid);
+        }
+        committing.put(tid, pids);
+    }
+
+    /**
+     * tid's commit (or abort) is complete: its pages are written out and
+     * their before-images reset.
+     */
+    public synchronized void finish(TransactionId tid) {
+        List<PageId> pids = committing.remove(tid);
+        if (pids == null) {
+            return;
+        }
+        long watermark = watermark();
+        for (PageId pid : pids) {
+            pending.remove(pid);
+            trim(pid, watermark);
+        }
+    }
+
+    /**
+     * @return the version of pid that snapshot sees, or null if that is the
+     * page's current committed image
+     */
+    public synchronized Page lookup(PageId pid, long snapshot) {
+        for (Version v = chains.get(pid); v != null; v = v.older) {
+            if (v.commitTs <= snapshot) {
+                return v.page;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the timestamp of the last commit that changed pid, if that is
+     * later than the oldest running snapshot; 0 otherwise
+     */
+    public synchronized long lastCommitOf(PageId pid) {
+        Version head = chains.get(pid);
+        return head == null ? 0 : head.commitTs;
+    }
+
+    /**
+     * @return the number of pages with a version chain
+     */
+    public synchronized int numChains() {
+        return chains.size();
+    }
+
+    /**
+     * @return the oldest snapshot still running, or Long.MAX_VALUE
+     */
+    private long watermark() {
+        long oldest = Long.MAX_VALUE;
+        for (long s : snapshots.values()) {
+            oldest = Math.min(oldest, s);
+        }
+        return oldest;
+    }
+
+    /**
+     * Drop the versions of pid older than the one the oldest snapshot sees.
+     */
+    private void trim(PageId pid, long watermark) {
+        Version head = chains.get(pid);
+        Version v = head;
+        while (v != null && v.commitTs > watermark) {
+            v = v.older;
+        }
+        if (v != null) {
+            v.older = null;
+        }
+        if (head != null && head.older == null && !pending.contains(pid)) {
+            chains.remove(pid);
+        }
+    }
+
+    /**
+     * Decode a private copy of page's current contents.  Pages must have a
+     * constructor of the form Page(PageId id, byte[] data); see {@link Page}.
+     */
+    static Page copyOf(Page page) throws DbException {
+        byte[] data = page.getPageData();
+        for (Constructor<?> c : page.getClass().getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length == 2 && params[1] == byte[].class) {
+                try {
+                    return (Page) c.newInstance(page.getId(), data);
+                } catch (Exception e) {
+                    throw new DbException("could not copy page " + page.getId() + ": " + e);
+                }
+            }
+        }
+        throw new DbException(page.getClass().getName() + " has no (PageId, byte[]) constructor");
+    }
+}
@@ -9,6 +9,8 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -224,6 +226,75 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
         System.out.println("testUpgradeWriteDeadlock resolved deadlock");
     }
 
+    /**
+     * Unit test for deadlock detection: of two transactions waiting for
+     * each other, the younger is aborted straight away and the older one
+     * gets its lock.
+     */
+    @Test
+    public void testDetectAbortsYoungest() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+        LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+        Thread.sleep(POLL_INTERVAL);
+        assertFalse(lg1.acquired());
+        assertNull(lg1.getError());
+
+        // closes the cycle; tid2 is younger
+        LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+        lg2.join(POLL_INTERVAL);
+        assertTrue(lg2.getError() instanceof TransactionAbortedException);
+        Thread.sleep(POLL_INTERVAL);
+        assertTrue(lg1.acquired());
+    }
+
+    /**
+     * Unit test for wait-die: an older requester waits, a younger one dies.
+     */
+    @Test
+    public void testWaitDie() throws Exception {
+        bp.setDeadlockPolicy(LockManager.DeadlockPolicy.WAIT_DIE);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+        LockGrabber older = startGrabber(tid1, p1, Permissions.READ_ONLY);
+        LockGrabber younger = startGrabber(tid2, p0, Permissions.READ_ONLY);
+        younger.join(POLL_INTERVAL);
+        assertTrue(younger.getError() instanceof TransactionAbortedException);
+        Thread.sleep(POLL_INTERVAL);
+        assertTrue(older.acquired());
+        assertNull(older.getError());
+    }
+
+    /**
+     * Unit test for wound-wait: an older requester wounds the younger
+     * holder, which aborts at its next lock request; a younger requester
+     * just waits.
+     */
+    @Test
+    public void testWoundWait() throws Exception {
+        bp.setDeadlockPolicy(LockManager.DeadlockPolicy.WOUND_WAIT);
+        TransactionId tid3 = new TransactionId();
+        bp.getPage(tid2, p0, Permissions.READ_WRITE);
+        bp.getPage(tid3, p2, Permissions.READ_WRITE);
+
+        // tid3 is younger than tid2, so it waits
+        LockGrabber waiter = startGrabber(tid3, p0, Permissions.READ_ONLY);
+        // tid1 is older than tid2, so tid2 is wounded
+        LockGrabber older = startGrabber(tid1, p0, Permissions.READ_ONLY);
+        Thread.sleep(POLL_INTERVAL);
+        assertFalse(older.acquired());
+        assertNull(waiter.getError());
+
+        LockGrabber wounded = startGrabber(tid2, p1, Permissions.READ_ONLY);
+        wounded.join(POLL_INTERVAL);
+        assertTrue(wounded.getError() instanceof TransactionAbortedException);
+        Thread.sleep(POLL_INTERVAL);
+        assertTrue(older.acquired());
+        assertTrue(waiter.acquired());
+    }
+
     /**
      * JUnit suite target
      */
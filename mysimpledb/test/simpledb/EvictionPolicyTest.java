@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.Evictable ALL = new EvictionPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    private static EvictionPolicy.Evictable allBut(final PageId pinned) {
+        return new EvictionPolicy.Evictable() {
+            public boolean canEvict(PageId pid) {
+                return !pid.equals(pinned);
+            }
+        };
+    }
+
+    /**
+     * CLOCK gives a page referenced since the last sweep a second chance
+     */
+    @Test
+    public void clockSecondChance() {
+        ClockEvictionPolicy clock = new ClockEvictionPolicy();
+        for (int i = 0; i < 3; i++) {
+            clock.pageLoaded(pid(i));
+        }
+        // first sweep clears all bits, then page 0 is the first unreferenced
+        assertEquals(pid(0), clock.chooseVictim(ALL));
+        clock.pageAccessed(pid(1));
+        assertEquals(pid(2), clock.chooseVictim(ALL));
+        assertEquals(pid(1), clock.chooseVictim(ALL));
+        assertNull(clock.chooseVictim(ALL));
+    }
+
+    /**
+     * Victims must pass the Evictable filter
+     */
+    @Test
+    public void skipsPinnedPages() {
+        EvictionPolicy[] policies = new EvictionPolicy[]{
+                new ClockEvictionPolicy(), new LruKEvictionPolicy(), new TwoQueueEvictionPolicy(4)};
+        for (EvictionPolicy policy : policies) {
+            policy.pageLoaded(pid(0));
+            policy.pageLoaded(pid(1));
+            assertEquals(pid(1), policy.chooseVictim(allBut(pid(0))));
+            assertNull(policy.chooseVictim(allBut(pid(0))));
+            policy.pageRemoved(pid(0));
+            assertNull(policy.chooseVictim(ALL));
+        }
+    }
+
+    /**
+     * LRU-K evicts pages with fewer than K references first
+     */
+    @Test
+    public void lruKEvictsColdFirst() {
+        LruKEvictionPolicy lru2 = new LruKEvictionPolicy(2);
+        lru2.pageLoaded(pid(0));
+        lru2.pageAccessed(pid(0));
+        lru2.pageLoaded(pid(1));
+        lru2.pageLoaded(pid(2));
+        assertEquals(pid(1), lru2.chooseVictim(ALL));
+        assertEquals(pid(2), lru2.chooseVictim(ALL));
+        assertEquals(pid(0), lru2.chooseVictim(ALL));
+    }
+
+    /**
+     * A long scan must not flush pages that 2Q has promoted to Am
+     */
+    @Test
+    public void twoQueueIsScanResistant() {
+        int capacity = 8;
+        TwoQueueEvictionPolicy twoQ = new TwoQueueEvictionPolicy(capacity);
+        Set<PageId> resident = new HashSet<PageId>();
+
+        // load the hot page, let it age out to A1out, then reload it
+        PageId hot = pid(0);
+        twoQ.pageLoaded(hot);
+        resident.add(hot);
+        for (int i = 1; resident.contains(hot); i++) {
+            load(twoQ, resident, pid(i), capacity);
+        }
+        load(twoQ, resident, hot, capacity);
+
+        // now scan many pages that are each touched once
+        for (int i = 1000; i < 1100; i++) {
+            load(twoQ, resident, pid(i), capacity);
+        }
+        assertTrue(resident.contains(hot));
+    }
+
+    private static void load(EvictionPolicy policy, Set<PageId> resident, PageId p, int capacity) {
+        while (resident.size() >= capacity) {
+            resident.remove(policy.chooseVictim(ALL));
+        }
+        policy.pageLoaded(p);
+        resident.add(p);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
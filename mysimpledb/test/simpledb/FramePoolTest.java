@@ -0,0 +1,80 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FramePoolTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+    }
+
+    /**
+     * Unit test for FramePool.store() and FramePool.load()
+     */
+    @Test
+    public void storeAndLoad() throws Exception {
+        FramePool frames = new FramePool(4);
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        Page page = hf.readPage(pid);
+        frames.store(page);
+        assertEquals(1, frames.size());
+
+        Page decoded = frames.load(pid);
+        assertEquals(pid, decoded.getId());
+        assertArrayEquals(page.getPageData(), decoded.getPageData());
+
+        // loading moves the page out of its frame
+        assertEquals(0, frames.size());
+        assertNull(frames.load(pid));
+    }
+
+    /**
+     * Frames are recycled once the pool is full
+     */
+    @Test
+    public void recycleFrames() throws Exception {
+        FramePool frames = new FramePool(2);
+        for (int i = 0; i < 3; i++) {
+            frames.store(hf.readPage(new HeapPageId(hf.getId(), i)));
+        }
+        assertEquals(2, frames.size());
+        assertNull(frames.load(new HeapPageId(hf.getId(), 0)));
+        frames.invalidate(new HeapPageId(hf.getId(), 1));
+        assertEquals(1, frames.size());
+    }
+
+    /**
+     * Scanning through a tiny decoded pool backed by frames returns the
+     * whole table, repeatedly
+     */
+    @Test
+    public void scanThroughFrames() throws Exception {
+        Database.resetBufferPool(2, new ClockEvictionPolicy(), 64);
+        SystemTestUtil.matchTuples(hf, tuples);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FramePoolTest.class);
+    }
+}
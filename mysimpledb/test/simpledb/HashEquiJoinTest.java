@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[]{1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8});
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[]{1, 2, 3,
+                        2, 3, 4,
+                        3, 4, 5,
+                        4, 5, 6,
+                        5, 6, 7});
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        5, 6, 5, 6, 7});
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+    }
+
+    /**
+     * Unit test for HashEquiJoin.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        TestUtil.compareDbIterators(eqJoin, op);
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getNext()
+     */
+    @Test
+    public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        eqJoin.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+    }
+
+    /**
+     * The build side is the left child when it is the smaller input, and
+     * output tuples still have the left child's fields first
+     */
+    @Test
+    public void buildOnLeft() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        DbIterator small = TestUtil.createTupleList(width1, new int[]{3, 4});
+        HashEquiJoin op = new HashEquiJoin(pred, small, scan2);
+        op.open();
+        assertTrue(op.hasNext());
+        assertTrue(TestUtil.compareTuples(
+                Utility.getHeapTuple(new int[]{3, 4, 3, 4, 5}), op.next()));
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    /**
+     * Inputs bigger than the memory budget are partitioned to disk, and
+     * skewed partitions are partitioned again
+     */
+    @Test
+    public void spillMatchesNestedLoops() throws Exception {
+        Random r = new Random(460);
+        int[] left = new int[2 * 3000];
+        int[] right = new int[3 * 2000];
+        for (int i = 0; i < left.length; i += 2) {
+            // a third of the keys are the same value to force repartitioning
+            left[i] = i % 3 == 0 ? 7 : r.nextInt(1000);
+            left[i + 1] = i;
+        }
+        for (int i = 0; i < right.length; i += 3) {
+            right[i] = r.nextInt(1000);
+            right[i + 1] = i;
+            right[i + 2] = -i;
+        }
+        right[0] = 7;
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        ArrayList<String> expected = drain(new Join(pred,
+                TestUtil.createTupleList(2, left), TestUtil.createTupleList(3, right)));
+        HashEquiJoin op = new HashEquiJoin(pred,
+                TestUtil.createTupleList(2, left), TestUtil.createTupleList(3, right), 100);
+        ArrayList<String> actual = drain(op);
+        assertTrue(expected.size() > 1000);
+        assertEquals(expected, actual);
+
+        op.open();
+        op.rewind();
+        ArrayList<String> again = new ArrayList<String>();
+        while (op.hasNext()) {
+            again.add(op.next().toString());
+        }
+        op.close();
+        Collections.sort(again);
+        assertEquals(expected, again);
+    }
+
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -80,6 +80,60 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping, including
+     * pages appended after the file was first mapped
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520, null, null);
+        HeapPageId pid0 = new HeapPageId(twoPageFile.getId(), 0);
+        HeapPageId pid1 = new HeapPageId(twoPageFile.getId(), 1);
+        byte[] page0 = twoPageFile.readPage(pid0).getPageData();
+        byte[] page1 = twoPageFile.readPage(pid1).getPageData();
+
+        twoPageFile.setIoMode(HeapFile.IoMode.MAPPED);
+        assertArrayEquals(page0, twoPageFile.readPage(pid0).getPageData());
+        assertArrayEquals(page1, twoPageFile.readPage(pid1).getPageData());
+
+        HeapPageId pid2 = new HeapPageId(twoPageFile.getId(), 2);
+        twoPageFile.writePage(new HeapPage(pid2, page0));
+        assertArrayEquals(page0, twoPageFile.readPage(pid2).getPageData());
+        try {
+            twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 3));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Switching I/O mode does not close the channel under a concurrent reader
+     */
+    @Test
+    public void setIoModeWhileReading() throws Exception {
+        final HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520, null, null);
+        final HeapPageId pid1 = new HeapPageId(twoPageFile.getId(), 1);
+        final byte[] page1 = twoPageFile.readPage(pid1).getPageData();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        assertArrayEquals(page1, twoPageFile.readPage(pid1).getPageData());
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; reader.isAlive(); i++) {
+            twoPageFile.setIoMode(i % 2 == 0 ? HeapFile.IoMode.MAPPED : HeapFile.IoMode.POSITIONAL);
+        }
+        reader.join();
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -47,6 +49,32 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * An insert goes to the page a delete made room on, without waiting for
+     * locks on the full pages before it.
+     */
+    @Test(timeout = 10000)
+    public void insertFindsFreedSlot() throws Exception {
+        for (int i = 0; i < 504 * 3; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        HeapPageId pid = new HeapPageId(empty.getId(), 1);
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        empty.deleteTuple(tid, page.iterator().next());
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId other = new TransactionId();
+        Database.getBufferPool().getPage(other, new HeapPageId(empty.getId(), 0), Permissions.READ_WRITE);
+        tid = new TransactionId();
+        ArrayList<Page> pages = empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(pid, pages.get(0).getId());
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(other);
+    }
+
     /**
      * JUnit suite target
      */
@@ -128,6 +128,28 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Fields are read from the page bytes without decoding whole tuples, and
+     * predicates compare them in place.
+     */
+    @Test
+    public void readFieldsInPlace() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate over30000 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        int matches = 0;
+        for (int slot : page.usedSlots()) {
+            assertEquals(EXAMPLE_VALUES[slot][1], page.getInt(slot, 1));
+            assertEquals(new IntField(EXAMPLE_VALUES[slot][0]), page.getField(slot, 0));
+            if (over30000.filter(page, slot)) {
+                assertTrue(EXAMPLE_VALUES[slot][0] > 30000);
+                matches++;
+            }
+        }
+        assertEquals(9, matches);
+        assertEquals(EXAMPLE_VALUES[3][0], ((IntField) page.getTuple(3).getField(0)).getValue());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
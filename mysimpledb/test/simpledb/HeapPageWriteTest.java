@@ -1,6 +1,9 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -130,6 +133,32 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Inserts and deletes patch the page image, which getPageData returns
+     * without copying; the image is copied before it changes again.
+     */
+    @Test
+    public void pageDataIsPatchedInPlace() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+        byte[] before = page.getPageData();
+        assertSame(before, page.getPageData());
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        page.insertTuple(t);
+        page.deleteTuple(page.iterator().next());
+        byte[] after = page.getPageData();
+        assertNotSame(before, after);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, before);
+        assertArrayEquals(new int[]{0, 20}, page.dirtySlots());
+
+        HeapPage decoded = new HeapPage(pid, after);
+        assertEquals(null, decoded.getSlotData(0));
+        assertTrue(TestUtil.compareTuples(t, decoded.getTuple(20)));
+
+        page.setBeforeImage();
+        assertEquals(0, page.dirtySlots().length);
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,7 +1,13 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.NoSuchElementException;
 
 import junit.framework.JUnit4TestAdapter;
@@ -184,6 +190,143 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * With more groups than the memory budget, the extra groups are spilled
+     * to partitions and still come out with the right aggregates
+     */
+    @Test
+    public void spillGroups() throws Exception {
+        // 500 groups, each of values g, g+1, g+2, in a budget of 10 groups
+        int[] data = new int[2 * 3 * 500];
+        int[] expected = new int[2 * 500];
+        for (int i = 0; i < 3 * 500; i++) {
+            int g = i % 500;
+            data[2 * i] = g;
+            data[2 * i + 1] = g + i / 500;
+            expected[2 * g] = g;
+            expected[2 * g + 1] = 3 * g + 3;
+        }
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM, 10);
+        DbIterator input = TestUtil.createTupleList(width1, data);
+        input.open();
+        while (input.hasNext()) {
+            agg.mergeTupleIntoGroup(input.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+
+        // merging more after iterating reaches both kinds of group
+        DbIterator more = TestUtil.createTupleList(width1, new int[]{0, 100, 499, 100});
+        more.open();
+        while (more.hasNext()) {
+            agg.mergeTupleIntoGroup(more.next());
+        }
+        expected[1] += 100;
+        expected[2 * 499 + 1] += 100;
+        it = agg.iterator();
+        it.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+    }
+
+    private static HashSet<String> spillFiles() {
+        HashSet<String> names = new HashSet<String>();
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list();
+        for (String name : files) {
+            if (name.startsWith("simpledb-spill")) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Spill files, including those of the partitions' own aggregators, are
+     * deleted when the results are closed
+     */
+    @Test
+    public void closeDeletesSpillFiles() throws Exception {
+        HashSet<String> before = spillFiles();
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT, 50);
+        int[] data = new int[2 * 5000];
+        for (int i = 0; i < 5000; i++) {
+            data[2 * i] = i;
+        }
+        DbIterator input = TestUtil.createTupleList(width1, data);
+        input.open();
+        while (input.hasNext()) {
+            agg.mergeTupleIntoGroup(input.next());
+        }
+        assertTrue(spillFiles().size() > before.size());
+
+        DbIterator it = agg.iterator();
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.rewind();
+        assertTrue(it.hasNext());
+        it.close();
+        assertEquals(5000, n);
+        assertEquals(before, spillFiles());
+    }
+
+    /**
+     * A SUM too big for an integer field is an error, not a wrapped value
+     */
+    @Test
+    public void sumOverflow() throws Exception {
+        IntegerAggregator agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.SUM);
+        DbIterator input = TestUtil.createTupleList(width1,
+                new int[]{0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0, -2});
+        input.open();
+        while (input.hasNext()) {
+            agg.mergeTupleIntoGroup(input.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        try {
+            it.next();
+            fail("expected DbException");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * Test IntegerAggregator grouping on a string field
+     */
+    @Test
+    public void stringGroups() throws Exception {
+        Type[] types = {Type.STRING_TYPE, Type.INT_TYPE};
+        TupleDesc td = new TupleDesc(types, new String[]{"key", "value"});
+        ArrayList<Tuple> in = new ArrayList<Tuple>();
+        String[] keys = {"a", "b", "a", "c", "b", "a"};
+        for (int i = 0; i < keys.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(keys[i], Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            in.add(t);
+        }
+        // a budget of one group forces b and c to spill
+        IntegerAggregator agg = new IntegerAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT, 1);
+        for (Tuple t : in) {
+            agg.mergeTupleIntoGroup(t);
+        }
+        HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        DbIterator it = agg.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            counts.put(((StringField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        }
+        assertEquals(3, counts.size());
+        assertEquals(3, (int) counts.get("a"));
+        assertEquals(2, (int) counts.get("b"));
+        assertEquals(1, (int) counts.get("c"));
+    }
+
     /**
      * JUnit suite target
      */
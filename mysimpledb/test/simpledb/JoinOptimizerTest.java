@@ -33,7 +33,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
             ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix)
             throws IOException {
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        HeapFile.deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
@@ -141,6 +141,50 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         checkJoinEstimateCosts(jo, equalsJoinNode);
     }
 
+    /**
+     * Equi-joins are hashed, large range joins are sort-merged, and other
+     * predicates use block nested loops
+     */
+    @Test
+    public void cheapestJoinTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid, "SELECT * FROM "
+                + tableName1 + " t1, " + tableName2
+                + " t2 WHERE t1.c1 < t2.c2;"), new Vector<LogicalJoinNode>());
+        LogicalJoinNode j = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2), Predicate.Op.EQUALS);
+        Assert.assertEquals(JoinOptimizer.JoinAlgorithm.HASH,
+                jo.cheapestJoin(j, 100000, 100000, 1000, 1000));
+        j = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2), Predicate.Op.LESS_THAN);
+        Assert.assertEquals(JoinOptimizer.JoinAlgorithm.SORT_MERGE,
+                jo.cheapestJoin(j, 100000, 100000, 1000, 1000));
+        j = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2), Predicate.Op.NOT_EQUALS);
+        Assert.assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOPS,
+                jo.cheapestJoin(j, 100000, 100000, 1000, 1000));
+        Assert.assertTrue(jo.estimateJoinCost(j, 100000, 100000, 1000, 1000)
+                < jo.estimateJoinCost(j, JoinOptimizer.JoinAlgorithm.NESTED_LOOPS,
+                100000, 100000, 1000, 1000));
+    }
+
+    /**
+     * Without a plan to look up the outer table, block nested loops still
+     * counts its blocks in tuples: one block of narrow tuples is one scan
+     * of the inner input
+     */
+    @Test
+    public void blockNestedLoopsWithoutPlan() {
+        JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+        LogicalJoinNode j = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2), Predicate.Op.NOT_EQUALS);
+        int card1 = BlockNestedLoopJoin.blockTuples(Utility.getTupleDesc(2),
+                BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+        Assert.assertEquals(10 + 1000 + (double) card1 * 5, jo.estimateJoinCost(j,
+                JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOPS, card1, 5, 10, 1000), 0.0);
+    }
+
     private void checkJoinEstimateCosts(JoinOptimizer jo,
                                         LogicalJoinNode equalsJoinNode) {
         int card1s[] = new int[20];
@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    ArrayList<Tuple> tuples;
+    int pulled;
+    DbIterator scan;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleList() throws Exception {
+        tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 100; i++) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        // counts how many tuples Limit pulls from its child
+        scan = new TupleIterator(Utility.getTupleDesc(2), new Iterable<Tuple>() {
+            public Iterator<Tuple> iterator() {
+                final Iterator<Tuple> it = tuples.iterator();
+                return new Iterator<Tuple>() {
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    public Tuple next() {
+                        pulled++;
+                        return it.next();
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        });
+        // the TupleIterator constructor reads every tuple once
+        pulled = 0;
+    }
+
+    /**
+     * Limit returns the first tuples and stops pulling from its child
+     */
+    @Test
+    public void stopsEarly() throws Exception {
+        Limit op = new Limit(5, scan);
+        op.open();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(op.hasNext());
+            assertTrue(TestUtil.compareTuples(tuples.get(i), op.next()));
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        assertEquals(5, pulled);
+    }
+
+    /**
+     * Unit test for Limit.rewind() and a limit past the end of the input
+     */
+    @Test
+    public void rewind() throws Exception {
+        Limit op = new Limit(500, scan);
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        assertEquals(tuples.size(), n);
+        op.rewind();
+        assertTrue(TestUtil.compareTuples(tuples.get(0), op.next()));
+    }
+
+    /**
+     * The parser strips a trailing LIMIT clause before Zql sees it
+     */
+    @Test
+    public void parseLimit() {
+        assertEquals(50, Parser.limitOf("SELECT * FROM t ORDER BY t.a LIMIT 50;"));
+        assertEquals("SELECT * FROM t ORDER BY t.a;",
+                Parser.withoutLimit("SELECT * FROM t ORDER BY t.a limit 50 ;"));
+        assertEquals(LogicalPlan.NO_LIMIT, Parser.limitOf("SELECT * FROM t;"));
+        assertEquals("SELECT * FROM t;", Parser.withoutLimit("SELECT * FROM t;"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
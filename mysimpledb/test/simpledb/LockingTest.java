@@ -4,7 +4,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import junit.framework.JUnit4TestAdapter;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +133,100 @@ public class LockingTest extends TestUtil.CreateHeapFile {
         grabLock(tid1, p1, Permissions.READ_WRITE, true);
     }
 
+    /**
+     * Unit test for BufferPool.getPage() assuming locking.
+     * Granting a free shared lock does not wait at all.
+     */
+    @Test
+    public void sharedLocksAreImmediate() throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 200; i++) {
+            bp.getPage(new TransactionId(), p0, Permissions.READ_ONLY);
+        }
+        assertTrue(System.currentTimeMillis() - start < TIMEOUT);
+    }
+
+    /**
+     * Unit test for BufferPool.releasePage() assuming locking.
+     * A release hands the lock to the transaction waiting for it.
+     */
+    @Test
+    public void releaseWakesWaiter() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(t.acquired());
+
+        bp.releasePage(tid1, p0);
+        t.join(TIMEOUT);
+        assertTrue(t.acquired());
+        assertNull(t.getError());
+    }
+
+    /**
+     * Unit test for BufferPool.lockTable() assuming locking.
+     * A table read lock lets others read its pages but not write them.
+     */
+    @Test
+    public void tableLockCoversPages() throws Exception {
+        bp.lockTable(tid1, empty.getId(), Permissions.READ_ONLY);
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid1, p0));
+
+        grabLock(tid2, p1, Permissions.READ_ONLY, true);
+        grabLock(tid2, p1, Permissions.READ_WRITE, false);
+    }
+
+    /**
+     * Unit test for lock escalation.
+     * Once a transaction holds enough page locks in a table, it holds a
+     * table lock instead, which also covers pages it never touched.
+     */
+    @Test
+    public void pageLocksEscalate() throws Exception {
+        bp.setLockEscalationThreshold(2);
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid1, p1));
+
+        grabLock(tid2, p1, Permissions.READ_ONLY, true);
+        PageId p2 = new HeapPageId(empty.getId(), 2);
+        grabLock(tid2, p2, Permissions.READ_WRITE, false);
+    }
+
+    /**
+     * Unit test for BufferPool.lockTuple() assuming locking.
+     * Write locks on different tuples of one page do not conflict.
+     */
+    @Test
+    public void tupleLocksOnSamePage() throws Exception {
+        final RecordId r0 = new RecordId(p0, 0);
+        final RecordId r1 = new RecordId(p0, 1);
+        bp.lockTuple(tid1, r0, Permissions.READ_WRITE);
+
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    bp.lockTuple(tid2, r1, Permissions.READ_WRITE);
+                    bp.lockTuple(tid2, r0, Permissions.READ_ONLY);
+                } catch (TransactionAbortedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        other.start();
+        other.join(TIMEOUT);
+        // got r1, waits for r0
+        assertTrue(other.isAlive());
+        grabLock(tid2, p0, Permissions.READ_WRITE, false);
+
+        bp.transactionComplete(tid1);
+        other.join(TIMEOUT);
+        assertFalse(other.isAlive());
+    }
+
     /**
      * JUnit suite target
      */
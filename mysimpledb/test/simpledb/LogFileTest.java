@@ -0,0 +1,270 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    private File f;
+    private LogFile log;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("simpledb-log", null);
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+
+    /**
+     * Records are buffered until something forces them.
+     */
+    @Test
+    public void commitForcesBufferedRecords() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long header = f.length();
+        assertEquals(LogFile.HEADER_SIZE, header);
+
+        log.logCommit(tid);
+        // BEGIN and COMMIT: type, tid and start offset each
+        int recordSize = LogFile.INT_SIZE + 2 * LogFile.LONG_SIZE;
+        assertEquals(header + 2 * recordSize, f.length());
+        assertEquals(1, log.numForces());
+    }
+
+    /**
+     * Transactions committing together share forces.
+     */
+    @Test
+    public void groupCommit() throws Exception {
+        final int n = 8;
+        log.setMaxCommitDelay(1000);
+        final ArrayList<TransactionId> tids = new ArrayList<TransactionId>();
+        for (int i = 0; i < n; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            tids.add(tid);
+        }
+        final CountDownLatch done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            final TransactionId tid = tids.get(i);
+            new Thread() {
+                public void run() {
+                    try {
+                        log.logCommit(tid);
+                        done.countDown();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertTrue(log.numForces() < n);
+    }
+
+    /**
+     * Changing one tuple of a HeapPage logs that slot, not the page, and
+     * stamps the page with the record's LSN.
+     */
+    @Test
+    public void slotRecordsAreCompact() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        HeapPage before = page.getBeforeImage();
+        page.deleteTuple(page.iterator().next());
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.force();
+        long start = f.length();
+        log.logWrite(tid, before, page);
+        log.force();
+        assertTrue(f.length() - start < 100);
+        assertEquals(start, page.getLsn());
+    }
+
+    /**
+     * Slot records can be redone any number of times, and undone.
+     */
+    @Test
+    public void slotRecordsRedoAndUndo() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        HeapPage before = page.getBeforeImage();
+        Tuple t = page.iterator().next();
+        int slot = t.getRecordId().tupleno();
+        page.deleteTuple(t);
+        t.setField(1, new IntField(-1));
+        page.insertTuple(t);
+        assertEquals(slot, t.getRecordId().tupleno());
+
+        SlotLogRecord rec = SlotLogRecord.diff(page.getId(), slot,
+                before.getSlotData(slot), page.getSlotData(slot));
+        assertEquals(LogType.FIELD_UPDATE_RECORD, rec.type);
+        HeapPage redone = page.getBeforeImage();
+        rec.redo(redone);
+        rec.redo(redone);
+        assertArrayEquals(page.getSlotData(slot), redone.getSlotData(slot));
+
+        rec.inverse().redo(redone);
+        assertArrayEquals(before.getPageData(), redone.getPageData());
+    }
+
+    /**
+     * @return page pgNo of hf, with its first tuple deleted under tid and
+     * the change logged, but not written
+     */
+    private HeapPage logDelete(TransactionId tid, HeapFile hf, int pgNo) throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+        HeapPage before = page.getBeforeImage();
+        page.deleteTuple(page.iterator().next());
+        log.logWrite(tid, before, page);
+        return page;
+    }
+
+    /**
+     * Recovery redoes committed changes that never reached disk, each page
+     * on its own thread, and redoing them again changes nothing.
+     */
+    @Test
+    public void redoRestoresEveryPage() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        int n = hf.numPages();
+        assertTrue(n > 1);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage[] changed = new HeapPage[n];
+        for (int i = 0; i < n; i++) {
+            changed[i] = logDelete(tid, hf, i);
+        }
+        log.logCommit(tid);
+
+        for (int pass = 0; pass < 2; pass++) {
+            log.recover();
+            for (int i = 0; i < n; i++) {
+                HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+                assertArrayEquals(changed[i].getPageData(), page.getPageData());
+                assertEquals(changed[i].getLsn(), page.getLsn());
+            }
+        }
+    }
+
+    /**
+     * Analysis starts at the last checkpoint, so a change logged before it
+     * is redone only if its page is in the checkpoint's dirty page table.
+     */
+    @Test
+    public void analysisStartsAtCheckpoint() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        byte[] original = hf.readPage(pid0).getPageData();
+        // keeps the log from being truncated at the checkpoint
+        TransactionId t0 = new TransactionId();
+        log.logXactionBegin(t0);
+
+        TransactionId t1 = new TransactionId();
+        log.logXactionBegin(t1);
+        logDelete(t1, hf, 0);
+        log.logCommit(t1);
+        // the BufferPool has no dirty pages, so the checkpoint records
+        // page 0 as written
+        log.logCheckpoint();
+        assertEquals(LogFile.HEADER_SIZE, log.firstLsn());
+
+        TransactionId t2 = new TransactionId();
+        log.logXactionBegin(t2);
+        HeapPage changed = logDelete(t2, hf, 1);
+        log.logCommit(t2);
+        log.logCommit(t0);
+
+        log.recover();
+        assertArrayEquals(original, hf.readPage(pid0).getPageData());
+        assertArrayEquals(changed.getPageData(),
+                hf.readPage(new HeapPageId(hf.getId(), 1)).getPageData());
+    }
+
+    /**
+     * A checkpoint truncates the log up to the oldest running transaction,
+     * and LSNs stay the same.
+     */
+    @Test
+    public void checkpointTruncates() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        // enough log that a checkpoint finds it worth truncating
+        TransactionId t1 = new TransactionId();
+        log.logXactionBegin(t1);
+        while (f.length() < 2 * LogFile.MIN_TRUNCATE_BYTES) {
+            logDelete(t1, hf, 0);
+            log.force();
+        }
+        log.logCommit(t1);
+        long t2Start = f.length();
+        TransactionId t2 = new TransactionId();
+        log.logXactionBegin(t2);
+        log.logCheckpoint();
+        assertEquals(t2Start, log.firstLsn());
+        assertTrue(f.length() < t2Start);
+
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        HeapPage before = page.getBeforeImage();
+        page.deleteTuple(page.iterator().next());
+        long next = f.length() - LogFile.HEADER_SIZE + log.firstLsn();
+        assertEquals(next, log.logWrite(t2, before, page));
+        assertEquals(next, page.getLsn());
+
+        log.logCommit(t2);
+        log.logCheckpoint();
+        log.logTruncate();
+        assertTrue(log.firstLsn() > next);
+    }
+
+    /**
+     * A checkpoint leaves the log alone when truncating would copy more
+     * than it frees, but an explicit logTruncate still truncates.
+     */
+    @Test
+    public void smallPrefixIsKept() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            TransactionId t1 = new TransactionId();
+            log.logXactionBegin(t1);
+            log.logCommit(t1);
+        }
+        long t2Start = f.length();
+        TransactionId t2 = new TransactionId();
+        log.logXactionBegin(t2);
+        log.logCheckpoint();
+        assertEquals(LogFile.HEADER_SIZE, log.firstLsn());
+
+        log.logTruncate();
+        assertEquals(t2Start, log.firstLsn());
+        log.logCommit(t2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class OptimisticTest extends TestUtil.TwoPageHeapFile {
+    private static final int TIMEOUT = 100;
+
+    /**
+     * Committed page contents, read by a fresh locking transaction.
+     */
+    private int committedTuples(PageId pid) throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = countTuples(bp.getPage(tid, pid, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * An optimistic writer takes no locks before commit, and its writes are
+     * invisible to others until then.
+     */
+    @Test
+    public void writesArePrivateUntilCommit() throws Exception {
+        int before = committedTuples(p0);
+        Transaction occ = new Transaction(Transaction.Concurrency.OPTIMISTIC);
+        occ.start();
+        deleteOne(occ.getId(), p0);
+        assertEquals(before - 1, countTuples(bp.getPage(occ.getId(), p0, Permissions.READ_ONLY)));
+        assertFalse(bp.holdsLock(occ.getId(), p0));
+        assertEquals(before, committedTuples(p0));
+
+        occ.commit();
+        assertEquals(before - 1, committedTuples(p0));
+    }
+
+    /**
+     * A commit to a page the optimistic transaction read makes it fail
+     * validation, and its writes are thrown away.
+     */
+    @Test
+    public void conflictingCommitAborts() throws Exception {
+        int before = committedTuples(p1);
+        Transaction occ = new Transaction(Transaction.Concurrency.OPTIMISTIC);
+        occ.start();
+        bp.getPage(occ.getId(), p0, Permissions.READ_ONLY);
+        deleteOne(occ.getId(), p1);
+
+        TransactionId writer = new TransactionId();
+        deleteOne(writer, p0);
+        bp.transactionComplete(writer, true);
+
+        try {
+            occ.commit();
+            throw new AssertionError("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertFalse(bp.holdsLock(occ.getId(), p1));
+        assertEquals(before, committedTuples(p1));
+    }
+
+    /**
+     * Validation waits for a locking transaction that holds a page the
+     * optimistic transaction wrote.
+     */
+    @Test
+    public void validationWaitsForLocks() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, p0, Permissions.READ_ONLY);
+
+        final Transaction occ = new Transaction(Transaction.Concurrency.OPTIMISTIC);
+        occ.start();
+        deleteOne(occ.getId(), p0);
+        Thread committer = new Thread() {
+            public void run() {
+                try {
+                    occ.commit();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        committer.start();
+        committer.join(TIMEOUT);
+        assertTrue(committer.isAlive());
+
+        bp.transactionComplete(reader);
+        committer.join(TIMEOUT * 10);
+        assertFalse(committer.isAlive());
+        assertFalse(bp.holdsLock(occ.getId(), p0));
+    }
+
+    /**
+     * A page fetched READ_WRITE but never dirtied is validated as a read, so
+     * a locking reader of it does not hold up the commit.
+     */
+    @Test
+    public void unmodifiedPageIsARead() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, p0, Permissions.READ_ONLY);
+
+        final Transaction occ = new Transaction(Transaction.Concurrency.OPTIMISTIC);
+        occ.start();
+        bp.getPage(occ.getId(), p0, Permissions.READ_WRITE);
+        Thread committer = new Thread() {
+            public void run() {
+                try {
+                    occ.commit();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        committer.start();
+        committer.join(TIMEOUT * 10);
+        assertFalse(committer.isAlive());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    int[] data;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleList() throws Exception {
+        // (key, sequence number) pairs with many duplicate keys
+        Random r = new Random(460);
+        data = new int[2 * 1000];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = r.nextInt(20);
+            data[i + 1] = i / 2;
+        }
+    }
+
+    /**
+     * Unit test for OrderBy.getNext() with a single ascending key
+     */
+    @Test
+    public void sortAscending() throws Exception {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+        op.open();
+        checkSorted(drain(op), new int[]{0}, new boolean[]{true});
+    }
+
+    /**
+     * Unit test for OrderBy.getNext() on two keys in opposite orders
+     */
+    @Test
+    public void sortMultipleFields() throws Exception {
+        int[] fields = {0, 1};
+        boolean[] asc = {true, false};
+        OrderBy op = new OrderBy(fields, asc, TestUtil.createTupleList(2, data));
+        op.open();
+        checkSorted(drain(op), fields, asc);
+    }
+
+    /**
+     * Input larger than the memory budget is sorted in runs on disk and
+     * merged, in more than one pass when there are many runs
+     */
+    @Test
+    public void externalSort() throws Exception {
+        int[] fields = {0};
+        boolean[] asc = {false};
+        // 1000 tuples in runs of 7 is more runs than one merge takes
+        assertTrue(1000 / 7 > OrderBy.MAX_MERGE_FANIN);
+        OrderBy op = new OrderBy(fields, asc, TestUtil.createTupleList(2, data), 7);
+        op.open();
+        ArrayList<Tuple> sorted = drain(op);
+        checkSorted(sorted, fields, asc);
+        // ties stay in input order
+        for (int i = 1; i < sorted.size(); i++) {
+            if (value(sorted.get(i), 0) == value(sorted.get(i - 1), 0)) {
+                assertTrue(value(sorted.get(i), 1) > value(sorted.get(i - 1), 1));
+            }
+        }
+
+        op.rewind();
+        ArrayList<Tuple> again = drain(op);
+        assertEquals(sorted.size(), again.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertTrue(TestUtil.compareTuples(sorted.get(i), again.get(i)));
+        }
+        op.close();
+    }
+
+    /**
+     * Unit test for OrderBy.rewind() when the input fits in memory
+     */
+    @Test
+    public void rewind() throws Exception {
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+        op.open();
+        Tuple first = op.next();
+        drain(op);
+        op.rewind();
+        assertTrue(TestUtil.compareTuples(first, op.next()));
+    }
+
+    private static ArrayList<Tuple> drain(DbIterator it) throws Exception {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            out.add(it.next());
+        }
+        return out;
+    }
+
+    private static int value(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private void checkSorted(ArrayList<Tuple> tups, int[] fields, boolean[] asc) {
+        assertEquals(data.length / 2, tups.size());
+        for (int i = 1; i < tups.size(); i++) {
+            for (int f = 0; f < fields.length; f++) {
+                int prev = value(tups.get(i - 1), fields[f]);
+                int cur = value(tups.get(i), fields[f]);
+                if (prev != cur) {
+                    assertTrue(asc[f] ? prev < cur : prev > cur);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private PageTable table;
+
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        table = new PageTable(10);
+    }
+
+    /**
+     * Unit test for PageTable.getOrLoad() on a miss followed by a hit
+     */
+    @Test
+    public void loadThenHit() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        PageTable.Loader loader = new PageTable.Loader() {
+            public Page load(PageId pid) throws DbException {
+                loads.incrementAndGet();
+                return table.putIfAbsent(hf.readPage(pid));
+            }
+        };
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertNull(table.get(pid));
+        Page p = table.getOrLoad(pid, loader);
+        assertSame(p, table.getOrLoad(pid, loader));
+        assertSame(p, table.get(pid));
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * Concurrent misses on the same page must share a single load
+     */
+    @Test
+    public void concurrentMissesShareOneLoad() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final PageTable.Loader slowLoader = new PageTable.Loader() {
+            public Page load(PageId pid) throws DbException {
+                loads.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted");
+                }
+                return table.putIfAbsent(hf.readPage(pid));
+            }
+        };
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        final Page[] results = new Page[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int slot = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[slot] = table.getOrLoad(pid, slowLoader);
+                    } catch (DbException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, loads.get());
+        for (Page p : results) {
+            assertSame(results[0], p);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
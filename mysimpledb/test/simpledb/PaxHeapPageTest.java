@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before
+    public void addTable() throws Exception {
+        pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A PAX page holds the same tuples as a HeapPage, with each field in
+     * its own minipage.
+     */
+    @Test
+    public void fieldsAreStoredByColumn() throws Exception {
+        HeapPage fixed = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        Iterator<Tuple> it = fixed.iterator();
+        while (it.hasNext()) {
+            page.insertTuple(it.next());
+        }
+        assertEquals(fixed.getNumEmptySlots(), page.getNumEmptySlots());
+
+        PaxHeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        int[][] values = HeapPageReadTest.EXAMPLE_VALUES;
+        int minipage1 = page.headerSize + page.numSlots * Type.INT_TYPE.getLen();
+        for (int i = 0; i < values.length; i++) {
+            assertArrayEquals(fixed.getSlotData(i), copy.getSlotData(i));
+            assertEquals(values[i][1], copy.getInt(i, 1));
+            assertEquals(minipage1 + i * Type.INT_TYPE.getLen(), copy.fieldOffset(i, 1));
+            assertEquals(new IntField(values[i][0]), copy.getTuple(i).getField(0));
+        }
+        assertFalse(copy.isSlotUsed(values.length));
+    }
+
+    /**
+     * A scan of some columns of a PAX file returns just those, in the
+     * requested order, and pushed-down predicates refer to them.
+     */
+    @Test
+    public void columnPrunedScan() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(4, "c"), HeapFile.PageFormat.PAX);
+        Database.getCatalog().addTable(hf, "pax");
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{i, i + 1, i + 2, i + 3}));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "p", new int[]{3, 1});
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("p.c3", td.getFieldName(0));
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(11)), scan);
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            Tuple t = filter.next();
+            int i = ((IntField) t.getField(1)).getValue() - 1;
+            assertEquals(new IntField(i + 3), t.getField(0));
+            n++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, n);
+    }
+
+    /**
+     * Physical plans scan only the columns the query refers to.
+     */
+    @Test
+    public void planPrunesScanColumns() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(5, 100, null, null, "c");
+        Database.getCatalog().addTable(hf, "wide");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("wide", new TableStats(hf.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "w");
+        lp.addProjectField("w.c4", null);
+        lp.addFilter("w.c1", Predicate.Op.GREATER_THAN, "0");
+        DbIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+
+        DbIterator filter = ((Operator) plan).getChildren()[0];
+        SeqScan scan = (SeqScan) ((Operator) filter).getChildren()[0];
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("w.c1", scan.getTupleDesc().getFieldName(0));
+        assertEquals("w.c4", scan.getTupleDesc().getFieldName(1));
+        assertEquals(1, plan.getTupleDesc().numFields());
+        assertTrue(plan.getTupleDesc().getFieldName(0).endsWith("c4"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
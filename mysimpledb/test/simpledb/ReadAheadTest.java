@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // 504 two-int tuples per page, so this is 20 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        List<Page> pages = hf.readPages(18, 4);
+        assertEquals(2, pages.size());
+        assertEquals(new HeapPageId(hf.getId(), 18), pages.get(0).getId());
+        assertEquals(new HeapPageId(hf.getId(), 19), pages.get(1).getId());
+    }
+
+    /**
+     * A sequential scan pulls the following pages into the pool
+     */
+    @Test
+    public void prefetchesAhead() throws Exception {
+        ReadAhead ra = new ReadAhead(hf);
+        ra.pageRequested(0);
+        HeapPageId next = new HeapPageId(hf.getId(), ReadAhead.INITIAL_WINDOW);
+        for (int i = 0; i < 100 && !bp.isResident(next); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(bp.isResident(new HeapPageId(hf.getId(), 1)));
+        assertTrue(bp.isResident(next));
+    }
+
+    /**
+     * Random access does not trigger read-ahead
+     */
+    @Test
+    public void noPrefetchForRandomAccess() throws Exception {
+        ReadAhead ra = new ReadAhead(hf);
+        ra.pageRequested(7);
+        ra.pageRequested(3);
+        Thread.sleep(200);
+        assertFalse(bp.isResident(new HeapPageId(hf.getId(), 4)));
+        assertFalse(bp.isResident(new HeapPageId(hf.getId(), 8)));
+    }
+
+    /**
+     * Pages written after read-ahead read them must not be installed; they
+     * are read again, for any getPage that shares the load
+     */
+    @Test
+    public void staleReadIsReplaced() throws Exception {
+        long version = hf.writeVersion();
+        Page stale = hf.readPage(new HeapPageId(hf.getId(), 2));
+        hf.writePage(stale);
+        bp.prefetch(hf, version, stale);
+        assertTrue(bp.isResident(stale.getId()));
+        TransactionId tid = new TransactionId();
+        assertNotSame(stale, bp.getPage(tid, stale.getId(), Permissions.READ_ONLY));
+
+        Page fresh = hf.readPage(new HeapPageId(hf.getId(), 3));
+        bp.prefetch(hf, hf.writeVersion(), fresh);
+        assertSame(fresh, bp.getPage(tid, fresh.getId(), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Scans with read-ahead still return every tuple
+     */
+    @Test
+    public void scanMatches() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+        Database.resetBufferPool(8);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before
+    public void addTable() throws Exception {
+        pid = new HeapPageId(-1, -1);
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take only their length, so many more tuples fit than
+     * on a fixed page, and they read back from the page bytes.
+     */
+    @Test
+    public void shortStringsPackTightly() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "code" + n))) {
+            page.insertTuple(tuple(n, "code" + n));
+            n++;
+        }
+        HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertTrue(n > 4 * fixed.getNumEmptySlots());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getRecordId().tupleno());
+            assertEquals(i, copy.getInt(i, 0));
+            assertEquals(new StringField("code" + i, Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleting a tuple compacts the page, so its space can be used by a
+     * bigger tuple, and the other slots keep their numbers.
+     */
+    @Test
+    public void deleteCompacts() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        String filler = "0123456789012345678901234567890123456789";
+        while (page.hasRoomFor(tuple(tuples.size(), filler))) {
+            Tuple t = tuple(tuples.size(), filler);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        String big = filler + filler;
+        assertFalse(page.hasRoomFor(tuple(-1, big)));
+
+        page.deleteTuple(tuples.get(1));
+        page.deleteTuple(tuples.get(2));
+        assertFalse(page.isSlotUsed(1));
+        Tuple t = tuple(-1, big);
+        page.insertTuple(t);
+        assertEquals(1, t.getRecordId().tupleno());
+        assertEquals(new StringField(big, Type.STRING_LEN), page.getField(1, 1));
+        assertEquals(3, page.getInt(3, 0));
+        assertEquals(new StringField(filler, Type.STRING_LEN), page.getField(3, 1));
+    }
+
+    /**
+     * Slot records handle a slot whose record changes length.
+     */
+    @Test
+    public void slotRecordsChangeLength() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "a"));
+        page.insertTuple(tuple(2, "b"));
+        page.setBeforeImage();
+        HeapPage before = page.getBeforeImage();
+        assertTrue(before instanceof SlottedHeapPage);
+
+        Tuple t = page.getTuple(0);
+        page.deleteTuple(t);
+        page.insertTuple(tuple(1, "a longer string"));
+        SlotLogRecord rec = SlotLogRecord.diff(pid, 0, before.getSlotData(0), page.getSlotData(0));
+        assertEquals(LogType.FIELD_UPDATE_RECORD, rec.type);
+
+        HeapPage redone = page.getBeforeImage();
+        rec.redo(redone);
+        assertArrayEquals(page.getPageData(), redone.getPageData());
+        // undo restores the slots, though records may have moved
+        rec.inverse().redo(redone);
+        assertArrayEquals(before.getSlotData(0), redone.getSlotData(0));
+        assertArrayEquals(before.getSlotData(1), redone.getSlotData(1));
+    }
+
+    /**
+     * A slotted HeapFile stores and scans tuples through the BufferPool.
+     */
+    @Test
+    public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFile hf = new HeapFile(f, td, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "name" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        // fixed pages hold 30 of these tuples each, so would need 34 pages
+        assertTrue(hf.numPages() < 8);
+
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class SnapshotTest extends TestUtil.TwoPageHeapFile {
+    /**
+     * A snapshot reads past a writer's exclusive lock and sees only
+     * committed data, before and after the writer commits.
+     */
+    @Test
+    public void snapshotIgnoresLaterWrites() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        int before = countTuples(bp.getPage(reader, p0, Permissions.READ_ONLY));
+
+        TransactionId writer = new TransactionId();
+        deleteOne(writer, p0);
+        assertEquals(before, countTuples(bp.getPage(reader, p0, Permissions.READ_ONLY)));
+
+        bp.transactionComplete(writer, true);
+        assertEquals(before, countTuples(bp.getPage(reader, p0, Permissions.READ_ONLY)));
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(before - 1, countTuples(bp.getPage(later, p0, Permissions.READ_ONLY)));
+
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+    }
+
+    /**
+     * Snapshot reads take no locks, and a snapshot cannot write.
+     */
+    @Test
+    public void snapshotTakesNoLocks() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        bp.getPage(reader, p1, Permissions.READ_ONLY);
+        assertFalse(bp.holdsLock(reader, p1));
+
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, p1, Permissions.READ_WRITE);
+        try {
+            bp.getPage(reader, p0, Permissions.READ_WRITE);
+            throw new AssertionError("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(reader);
+        bp.transactionComplete(writer, false);
+    }
+
+    /**
+     * Versions stay only while a snapshot that can see them is running.
+     */
+    @Test
+    public void versionsAreCollected() throws Exception {
+        VersionStore versions = new VersionStore();
+        ArrayList<Page> pages = new ArrayList<Page>();
+
+        TransactionId writer = new TransactionId();
+        pages.add(deleteOne(writer, p0));
+        versions.publish(writer, pages);
+        versions.finish(writer);
+        bp.releasePage(writer, p0);
+        assertEquals(0, versions.numChains());
+
+        TransactionId reader = new TransactionId();
+        versions.beginSnapshot(reader);
+        long snapshot = versions.snapshotOf(reader);
+        TransactionId writer2 = new TransactionId();
+        pages.set(0, deleteOne(writer2, p0));
+        versions.publish(writer2, pages);
+        versions.finish(writer2);
+        assertEquals(1, versions.numChains());
+        assertNotNull(versions.lookup(p0, snapshot));
+        assertNull(versions.lookup(p1, snapshot));
+
+        versions.endSnapshot(reader);
+        assertEquals(0, versions.numChains());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
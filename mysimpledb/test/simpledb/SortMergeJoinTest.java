@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+    DbIterator gtJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[]{1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8});
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[]{1, 2, 3,
+                        2, 3, 4,
+                        3, 4, 5,
+                        4, 5, 6,
+                        5, 6, 7});
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        5, 6, 5, 6, 7});
+        this.gtJoin = TestUtil.createTupleList(width1 + width2,
+                new int[]{
+                        3, 4, 1, 2, 3, // 1, 2 < 3
+                        3, 4, 2, 3, 4,
+                        5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                        5, 6, 2, 3, 4,
+                        5, 6, 3, 4, 5,
+                        5, 6, 4, 5, 6,
+                        7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                        7, 8, 2, 3, 4,
+                        7, 8, 3, 4, 5,
+                        7, 8, 4, 5, 6,
+                        7, 8, 5, 6, 7});
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+        TupleDesc actual = op.getTupleDesc();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        Tuple expected = eqJoin.next();
+        Tuple actual = op.next();
+        assertTrue(TestUtil.compareTuples(expected, actual));
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+     */
+    @Test
+    public void gtJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        gtJoin.open();
+        TestUtil.matchAllTuples(gtJoin, op);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getNext() using an = predicate
+     */
+    @Test
+    public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        eqJoin.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+    }
+
+    /**
+     * SortMergeJoin matches a tuple-at-a-time evaluation of the predicate on every
+     * range operator, both in memory and when its sorts spill
+     */
+    @Test
+    public void rangeJoinsMatchPredicate() throws Exception {
+        Random r = new Random(460);
+        int[] left = new int[2 * 300];
+        int[] right = new int[3 * 200];
+        for (int i = 0; i < left.length; i += 2) {
+            left[i] = r.nextInt(50);
+            left[i + 1] = i;
+        }
+        for (int i = 0; i < right.length; i += 3) {
+            right[i] = r.nextInt(50);
+            right[i + 1] = i;
+            right[i + 2] = -i;
+        }
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ};
+        for (Predicate.Op op : ops) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            ArrayList<String> expected = new ArrayList<String>();
+            for (int i = 0; i < left.length; i += 2) {
+                for (int j = 0; j < right.length; j += 3) {
+                    if (new IntField(left[i]).compare(op, new IntField(right[j]))) {
+                        expected.add(left[i] + "\t" + left[i + 1] + "\t"
+                                + right[j] + "\t" + right[j + 1] + "\t" + right[j + 2]);
+                    }
+                }
+            }
+            Collections.sort(expected);
+            // 7 tuples in memory forces both sorts to spill runs to disk
+            for (int maxTuples : new int[]{OrderBy.DEFAULT_MAX_TUPLES_IN_MEMORY, 7}) {
+                SortMergeJoin join = new SortMergeJoin(pred, TestUtil.createTupleList(2, left),
+                        TestUtil.createTupleList(3, right), maxTuples);
+                join.open();
+                assertEquals(expected, drain(join));
+                join.rewind();
+                assertEquals(expected, drain(join));
+                join.close();
+            }
+        }
+    }
+
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
+
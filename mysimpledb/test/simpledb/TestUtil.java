@@ -5,6 +5,10 @@ import java.util.*;
 
 import static org.junit.Assert.*;
 
+import org.junit.Before;
+
+import simpledb.systemtest.SystemTestUtil;
+
 public class TestUtil {
     /**
      * @return an IntField with value n
@@ -407,7 +411,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            HeapFile.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -422,4 +426,40 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * A fresh buffer pool over a random two-page heap file, for tests that
+     * run several transactions against the same pages.
+     */
+    public static abstract class TwoPageHeapFile extends CreateHeapFile {
+        protected PageId p0, p1;
+        protected BufferPool bp;
+
+        @Before
+        public void setUp() throws Exception {
+            super.setUp();
+            bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            empty = SystemTestUtil.createRandomHeapFile(2, 1025, null, null);
+            p0 = new HeapPageId(empty.getId(), 0);
+            p1 = new HeapPageId(empty.getId(), 1);
+        }
+
+        protected static int countTuples(Page page) {
+            int n = 0;
+            for (Iterator<Tuple> it = ((HeapPage) page).iterator(); it.hasNext(); it.next()) {
+                n++;
+            }
+            return n;
+        }
+
+        /**
+         * Delete one tuple from pid on behalf of tid, leaving the page dirty.
+         */
+        protected HeapPage deleteOne(TransactionId tid, PageId pid) throws Exception {
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            page.deleteTuple(page.iterator().next());
+            page.markDirty(true, tid);
+            return page;
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopKTest extends SimpleDbTestBase {
+
+    int[] data;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleList() throws Exception {
+        // (key, sequence number) pairs with many duplicate keys
+        Random r = new Random(460);
+        data = new int[2 * 1000];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = r.nextInt(100);
+            data[i + 1] = i / 2;
+        }
+    }
+
+    /**
+     * TopK returns the first k tuples OrderBy would, ties included
+     */
+    @Test
+    public void matchesOrderBy() throws Exception {
+        int[] fields = {0};
+        for (boolean asc : new boolean[]{true, false}) {
+            boolean[] ascs = {asc};
+            ArrayList<Tuple> sorted = drain(new OrderBy(fields, ascs, TestUtil.createTupleList(2, data)));
+            for (int k : new int[]{1, 50, 999, 1000, 5000}) {
+                ArrayList<Tuple> top = drain(new TopK(fields, ascs, k, TestUtil.createTupleList(2, data)));
+                assertEquals(Math.min(k, sorted.size()), top.size());
+                for (int i = 0; i < top.size(); i++) {
+                    assertTrue(TestUtil.compareTuples(sorted.get(i), top.get(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Unit test for TopK with a LIMIT of 0
+     */
+    @Test
+    public void limitZero() throws Exception {
+        TopK op = new TopK(new int[]{0}, new boolean[]{true}, 0, TestUtil.createTupleList(2, data));
+        op.open();
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    /**
+     * Unit test for TopK.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        TopK op = new TopK(new int[]{0, 1}, new boolean[]{true, false}, 10,
+                TestUtil.createTupleList(2, data));
+        op.open();
+        ArrayList<Tuple> first = new ArrayList<Tuple>();
+        while (op.hasNext()) {
+            first.add(op.next());
+        }
+        op.rewind();
+        for (Tuple t : first) {
+            assertTrue(TestUtil.compareTuples(t, op.next()));
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    private static ArrayList<Tuple> drain(DbIterator it) throws Exception {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next());
+        }
+        it.close();
+        return out;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopKTest.class);
+    }
+}
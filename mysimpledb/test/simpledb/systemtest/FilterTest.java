@@ -1,9 +1,13 @@
 package simpledb.systemtest;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 
 import static org.junit.Assert.*;
 
+import org.junit.Test;
+
 import simpledb.*;
 
 public class FilterTest extends FilterBase {
@@ -24,6 +28,33 @@ public class FilterTest extends FilterBase {
         return resultCount;
     }
 
+    /**
+     * The predicate is pushed into the scan, so a page none of whose tuples
+     * match yields nothing; the scan must go on to the following pages.
+     */
+    @Test
+    public void testMiddlePageWithoutMatches()
+            throws IOException, DbException, TransactionAbortedException {
+        int perPage = (BufferPool.getPageSize() * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3 * perPage; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i / perPage == 1 ? 2 : 1);
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        File temp = File.createTempFile("table", ".dat");
+        HeapFile.deleteOnExit(temp);
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+        HeapFile table = Utility.openHeapFile(2, temp);
+        assertEquals(3, table.numPages());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(2 * perPage, applyPredicate(table, tid,
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(1))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /**
      * Make test compatible with older version of ant.
      */
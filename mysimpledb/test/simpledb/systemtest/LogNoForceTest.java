@@ -38,6 +38,32 @@ public class LogNoForceTest extends LogTestBase {
         t.commit();
     }
 
+    /**
+     * Commits do not write their pages, but a committed page that has not
+     * been written yet can still be evicted: eviction writes it.
+     */
+    @Test
+    public void testCommittedDirtyEvicts()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512 * 10, null, null);
+        Database.resetBufferPool(1);
+
+        Transaction t = new Transaction();
+        t.start();
+        TransactionTestUtil.insertRow(f, t);
+        t.commit();
+
+        // the committed page is still dirty in the pool
+        Transaction t2 = new Transaction();
+        t2.start();
+        try {
+            assertTrue(TransactionTestUtil.findMagicTuple(f, t2));
+        } catch (DbException e) {
+            fail("Expected scan to be able to evict committed buffer pages");
+        }
+        t2.commit();
+    }
+
     @Test
     public void testNoForce() throws TransactionAbortedException, IOException, DbException {
         setup();
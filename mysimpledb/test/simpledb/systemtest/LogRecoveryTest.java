@@ -35,6 +35,37 @@ public class LogRecoveryTest extends LogTestBase {
         t.commit();
     }
 
+    /**
+     * A restart that appends without recovering starts a new log, but the
+     * tables keep the page LSNs of the old one; a commit in the new log
+     * must still be redone.
+     */
+    @Test
+    public void TestCommitAfterLogResetCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        for (int i = 0; i < 200; i++) {
+            doInsert(hf1, 100 + i, -1);
+        }
+
+        // restart without recovery; the next record resets the log
+        Database.reset();
+        hf1 = Utility.openHeapFile(2, file1);
+        hf2 = Utility.openHeapFile(2, file2);
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 1, 0);
+        t.commit();
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 100, true);
+        t.commit();
+    }
+
     @Test
     public void TestAbortCrash()
             throws IOException, DbException, TransactionAbortedException {
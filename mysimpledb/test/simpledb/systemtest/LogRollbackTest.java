@@ -172,6 +172,33 @@ public class LogRollbackTest extends LogTestBase {
         t.commit();
     }
 
+    @Test
+    public void TestAbortAfterOtherAbort()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+
+        // *** Test:
+        // a txn that began before another one aborted rolls back past
+        // the other txn's records, including its ABORT
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 5, 0);
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf2, t1, 6, 0);
+        abort(t1);
+
+        abort(t2);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 5, false);
+        look(hf2, t, 6, false);
+        t.commit();
+    }
+
     /**
      * Make test compatible with older version of ant.
      */
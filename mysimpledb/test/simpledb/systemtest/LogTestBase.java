@@ -122,8 +122,10 @@ public class LogTestBase extends SimpleDbTestBase {
         // adds to the catalog.
         file1 = new File("simple1.db");
         file1.delete();
+        HeapFile.deleteSidecars(file1);
         file2 = new File("simple2.db");
         file2.delete();
+        HeapFile.deleteSidecars(file2);
         hf1 = Utility.createEmptyHeapFile(file1.getAbsolutePath(), 2);
         hf2 = Utility.createEmptyHeapFile(file2.getAbsolutePath(), 2);
     }